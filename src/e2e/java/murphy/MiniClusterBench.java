@@ -0,0 +1,150 @@
+package murphy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ApplicationReport;
+import org.apache.hadoop.yarn.api.records.FinalApplicationStatus;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.client.api.YarnClient;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.apache.hadoop.yarn.server.MiniYARNCluster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import murphy.AppSubmitter.SubmitterParams;
+import murphy.appmaster.RunReport;
+
+/**
+ * Runs scenarios end to end (AppSubmitter -> AppMaster -> workers) on in-process MiniDFSCluster and
+ * MiniYARNCluster, collects timings and run reports and fails if any run does not finish with "OK".
+ * Usage: MiniClusterBench TheMurphy.jar scenario.properties...
+ * with -Dmurphy.e2e.runs, -Dmurphy.e2e.nodes, -Dmurphy.e2e.node.mb, -Dmurphy.e2e.nm.heartbeat.ms, -Dmurphy.e2e.results
+ * The JVM classpath must contain -Dmurphy.e2e.conf.dir, where cluster config for AM and workers is written.
+ */
+public class MiniClusterBench {
+
+	private static final Logger logger = LoggerFactory.getLogger(MiniClusterBench.class);
+
+	private static final int POLL_INTERVAL_MS = 100;
+	private static final String QUEUE = "default";
+
+	public static void main(String[] args) throws Exception {
+		String jar = args[0];
+		int runs = Integer.getInteger("murphy.e2e.runs", 1);
+		int nodes = Integer.getInteger("murphy.e2e.nodes", 2);
+		File confDir = new File(System.getProperty("murphy.e2e.conf.dir", "build/e2e-conf"));
+		File resultsFile = new File(System.getProperty("murphy.e2e.results", "build/reports/e2e/results.properties"));
+
+		Configuration conf = new YarnConfiguration();
+		conf.setInt(YarnConfiguration.RM_SCHEDULER_MINIMUM_ALLOCATION_MB, 64);
+		conf.setInt(YarnConfiguration.NM_PMEM_MB, Integer.getInteger("murphy.e2e.node.mb", 4096));
+		conf.setBoolean(YarnConfiguration.NM_VMEM_CHECK_ENABLED, false);
+		// scheduler allocates on node heartbeats, keep them frequent to shorten runs
+		conf.setLong(YarnConfiguration.RM_NM_HEARTBEAT_INTERVAL_MS, Long.getLong("murphy.e2e.nm.heartbeat.ms", 100));
+
+		MiniDFSCluster dfs = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+		conf.set(CommonConfigurationKeysPublic.FS_DEFAULT_NAME_KEY, dfs.getURI().toString());
+		MiniYARNCluster yarn = new MiniYARNCluster(MiniClusterBench.class.getSimpleName(), nodes, 1, 1);
+		yarn.init(conf);
+		yarn.start();
+		yarn.waitForNodeManagersToConnect(60000);
+
+		Configuration clusterConf = yarn.getConfig();
+		confDir.mkdirs();
+		// AM and workers load it from classpath, see ContainerLauncher.createContainerEnv
+		try (OutputStream out = new FileOutputStream(new File(confDir, "yarn-site.xml"))) {
+			clusterConf.writeXml(out);
+		}
+
+		Map<String, String> results = new LinkedHashMap<>();
+		int failures = 0;
+		YarnClient yarnClient = AppSubmitter.startYarnClient(clusterConf, jar);
+		try {
+			for (int i = 1; i < args.length; i++) {
+				String name = new File(args[i]).getName().replaceFirst("\\.properties$", "");
+				for (int run = 1; run <= runs; run++) {
+					if (!runScenario(yarnClient, args[i], name + "." + run, results, resultsFile.getParentFile())) {
+						failures++;
+					}
+				}
+			}
+		} finally {
+			yarnClient.stop();
+			yarn.stop();
+			dfs.shutdown();
+		}
+
+		resultsFile.getParentFile().mkdirs();
+		try (PrintWriter out = new PrintWriter(resultsFile, "UTF-8")) {
+			for (Map.Entry<String, String> e : results.entrySet()) {
+				out.println(e.getKey() + "=" + e.getValue());
+			}
+		}
+		logger.info("Results written to {}, {} failed runs", resultsFile, failures);
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Submits scenario and polls the app till it finishes, saves its run report into reportDir
+	 *
+	 * @return whether app succeeded without task failures
+	 */
+	private static boolean runScenario(YarnClient yarnClient, String scenarioFile, String key,
+			Map<String, String> results, File reportDir) throws YarnException, IOException, InterruptedException
+	{
+		SubmitterParams ap = new SubmitterParams(scenarioFile);
+		long submitted = System.currentTimeMillis();
+		ApplicationId appId = AppSubmitter.submitAppMaster(yarnClient,
+				ContainerLauncher.APPLICATION_NAME + ":" + ap.describe(), ap, QUEUE);
+
+		long running = -1;
+		ApplicationReport report;
+		while (true) {
+			report = yarnClient.getApplicationReport(appId);
+			YarnApplicationState state = report.getYarnApplicationState();
+			long now = System.currentTimeMillis();
+			if (state == YarnApplicationState.RUNNING && running < 0) {
+				running = now;
+			}
+			if (state == YarnApplicationState.FINISHED || state == YarnApplicationState.FAILED
+					|| state == YarnApplicationState.KILLED) {
+				break;
+			}
+			Thread.sleep(POLL_INTERVAL_MS);
+		}
+		long finished = System.currentTimeMillis();
+
+		reportDir.mkdirs();
+		File runReport = AppSubmitter.fetchRunReport(appId, new File(reportDir, key + "." + RunReport.FILE_NAME));
+		// AM counts containers of tasks only: RM usage includes the AM and surplus containers it releases;
+		// phased scenarios may never hold all their tasks at once
+		Properties am = runReport == null ? new Properties() : RunReport.load(runReport.getPath());
+		String tasksAtPeak = am.getProperty("tasks.peak.containers", "-1");
+		String rampMs = am.getProperty("tasks.peak.ms", "-1");
+		String diagnostics = AppMonitor.getDiagnostics(yarnClient, report);
+		boolean ok = report.getFinalApplicationStatus() == FinalApplicationStatus.SUCCEEDED
+				&& "OK".equals(diagnostics);
+		results.put(key + ".app", appId.toString());
+		results.put(key + ".status", ok ? "OK" : report.getFinalApplicationStatus() + ": " + diagnostics);
+		results.put(key + ".submit_to_running.ms", Long.toString(running < 0 ? -1 : running - submitted));
+		results.put(key + ".request_to_peak.ms", rampMs);
+		results.put(key + ".peak.containers", tasksAtPeak);
+		results.put(key + ".alloc.per_sec", am.getProperty("alloc.per_sec", "-1"));
+		results.put(key + ".total.ms", Long.toString(finished - submitted));
+		logger.info("{} {}: submit->running {} ms, {} containers in {} ms, total {} ms, {}", key, appId,
+				running - submitted, tasksAtPeak, rampMs, finished - submitted, results.get(key + ".status"));
+		return ok;
+	}
+}
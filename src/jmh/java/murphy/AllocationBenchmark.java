@@ -0,0 +1,91 @@
+package murphy;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of getting a chunk of memory resident: allocation plus a write to every page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g", "-XX:MaxDirectMemorySize=2g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AllocationBenchmark {
+
+	private static final int PAGE = 4096;
+
+	/** Unsafe malloc/free looked up reflectively: compile time references to sun.misc warn without suppression */
+	private static final MethodHandle ALLOCATE;
+	private static final MethodHandle PUT_LONG;
+	private static final MethodHandle GET_LONG;
+	private static final MethodHandle FREE;
+
+	static {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field f = unsafeClass.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			Object unsafe = f.get(null);
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			ALLOCATE = lookup.findVirtual(unsafeClass, "allocateMemory", MethodType.methodType(long.class, long.class))
+					.bindTo(unsafe);
+			PUT_LONG = lookup.findVirtual(unsafeClass, "putLong",
+					MethodType.methodType(void.class, long.class, long.class)).bindTo(unsafe);
+			GET_LONG = lookup.findVirtual(unsafeClass, "getLong", MethodType.methodType(long.class, long.class))
+					.bindTo(unsafe);
+			FREE = lookup.findVirtual(unsafeClass, "freeMemory", MethodType.methodType(void.class, long.class))
+					.bindTo(unsafe);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	@Param({ "1", "16", "100" })
+	public int chunkMB;
+
+	@Benchmark
+	public long heap() {
+		long[] words = new long[chunkMB << 17];
+		for (int i = 0; i < words.length; i += PAGE / 8) {
+			words[i] = i;
+		}
+		return words[words.length - PAGE / 8];
+	}
+
+	/**
+	 * Released buffers are freed by GC, which allocateDirect triggers near MaxDirectMemorySize,
+	 * so the average includes that GC like in a worker churning direct chunks.
+	 */
+	@Benchmark
+	public long direct() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(chunkMB << 20);
+		for (int i = 0; i < buffer.capacity(); i += PAGE) {
+			buffer.putLong(i, i);
+		}
+		return buffer.getLong(buffer.capacity() - PAGE);
+	}
+
+	/**
+	 * Note glibc raises its mmap threshold after freeing a big block and then recycles the block,
+	 * so without MALLOC_MMAP_THRESHOLD_ in the environment this shows reuse rather than page faults.
+	 */
+	@Benchmark
+	public long nativeMemory() throws Throwable {
+		long bytes = (long) chunkMB << 20;
+		long address = (long) ALLOCATE.invokeExact(bytes);
+		for (long i = 0; i < bytes; i += PAGE) {
+			PUT_LONG.invokeExact(address + i, i);
+		}
+		long last = (long) GET_LONG.invokeExact(address + bytes - PAGE);
+		FREE.invokeExact(address);
+		return last;
+	}
+}
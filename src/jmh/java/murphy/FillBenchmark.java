@@ -0,0 +1,78 @@
+package murphy;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Kernels to fill an already allocated chunk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FillBenchmark {
+
+	@Param({ "1", "100" })
+	public int chunkMB;
+
+	private byte[] bytes;
+	private long[] words;
+
+	@State(Scope.Thread)
+	public static class Pattern {
+		@Param({ "sequence", "walking", "address", "random", "compressible" })
+		public String pattern;
+
+		FillPattern fill;
+
+		@Setup
+		public void setUp() {
+			fill = FillPattern.forName(pattern, 42);
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		bytes = new byte[chunkMB << 20];
+		words = new long[chunkMB << 17];
+	}
+
+	/** Kernel of the worker before chunks became long[] */
+	@Benchmark
+	public byte[] byteLoop() {
+		for (int j = 0; j < bytes.length; j++) {
+			bytes[j] = (byte) ((3 + j) % 255 - 128);
+		}
+		return bytes;
+	}
+
+	@Benchmark
+	public long[] longStrides() {
+		for (int i = 0; i < words.length; i++) {
+			words[i] = 3 + i;
+		}
+		return words;
+	}
+
+	@Benchmark
+	public long[] arraysFill() {
+		Arrays.fill(words, 0x5a5a5a5a5a5a5a5aL);
+		return words;
+	}
+
+	@Benchmark
+	public long[] parallel() {
+		Arrays.parallelSetAll(words, i -> 3 + i);
+		return words;
+	}
+
+	@Benchmark
+	public long[] pattern(Pattern p) {
+		p.fill.fill(words, 3);
+		return words;
+	}
+}
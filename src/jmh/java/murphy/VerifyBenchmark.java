@@ -0,0 +1,54 @@
+package murphy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Scan of filled chunks against the pattern, as done by the worker after hold.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class VerifyBenchmark {
+
+	private static final int CHUNK_MB = 16;
+
+	@Param({ "sequence", "address", "random", "compressible" })
+	public String pattern;
+
+	@Param({ "4", "32" })
+	public int chunks;
+
+	private FillPattern fill;
+	private long[][] occupy;
+
+	@Setup
+	public void setUp() {
+		fill = FillPattern.forName(pattern, 42);
+		occupy = new long[chunks][CHUNK_MB << 17];
+		for (int i = 0; i < chunks; i++) {
+			fill.fill(occupy[i], i);
+		}
+	}
+
+	@Benchmark
+	public long sequential() {
+		long mismatches = 0;
+		for (int i = 0; i < chunks; i++) {
+			mismatches += fill.verify(occupy[i], i, "bench");
+		}
+		return mismatches;
+	}
+
+	@Benchmark
+	public long parallel() {
+		return IntStream.range(0, chunks).parallel()
+				.mapToLong(i -> fill.verify(occupy[i], i, "bench"))
+				.sum();
+	}
+}
@@ -85,6 +85,19 @@ public class AppMonitor {
 		}
 	}
 
+	/**
+	 * Final message of the AM: app diagnostics, or diagnostics of the attempt, where RM keeps unregister message
+	 */
+	public static String getDiagnostics(YarnClient yarnClient, ApplicationReport report)
+			throws YarnException, IOException
+	{
+		String diagnostics = report.getDiagnostics();
+		if ((diagnostics == null || diagnostics.isEmpty()) && report.getCurrentApplicationAttemptId() != null) {
+			diagnostics = yarnClient.getApplicationAttemptReport(report.getCurrentApplicationAttemptId()).getDiagnostics();
+		}
+		return diagnostics;
+	}
+
 	private static void printContainers(YarnClient yarnClient, ApplicationAttemptId attemptId, ApplicationAttemptId prevAttemptId)
 			throws YarnException, IOException
 	{
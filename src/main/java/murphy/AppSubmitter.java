@@ -1,6 +1,8 @@
 package murphy;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.security.UserGroupInformation;
 
 import org.apache.hadoop.yarn.api.protocolrecords.GetNewApplicationResponse;
@@ -14,16 +16,22 @@ import org.apache.hadoop.yarn.util.Records;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import java.util.*;
 
 import murphy.appmaster.AppMaster;
+import murphy.appmaster.RunReport;
+import murphy.appmaster.Scenario;
 
 /**
  * Runs application via YARN Usage: hadoop jar ./murphy-jar-with-dependencies.jar murphy.AppSubmitter
- * ./murphy-jar-with-dependencies.jar
+ * ./murphy-jar-with-dependencies.jar (numContainers containerMemSize | scenario.properties)
+ * <p>
+ * Compares run reports of two runs, exits 1 on regressions: murphy.AppSubmitter diff base.properties
+ * current.properties [threshold]
  */
 public class AppSubmitter {
 
@@ -37,33 +45,88 @@ public class AppSubmitter {
 	public static class SubmitterParams {
 		public String numContainers;
 		public String containerMemSize;
+		public String scenarioFile;
+
+		public SubmitterParams(String scenarioFile) {
+			this.scenarioFile = scenarioFile;
+		}
 
 		public SubmitterParams(String[] args) throws Exception {
-			numContainers = args[1];
-			containerMemSize = args[2];
+			if (args.length == 2) {
+				scenarioFile = args[1];
+			} else {
+				numContainers = args[1];
+				containerMemSize = args[2];
+			}
+		}
+
+		public String describe() {
+			if (scenarioFile != null) {
+				return new File(scenarioFile).getName();
+			}
+			return numContainers + "x" + containerMemSize;
 		}
 	}
 
 
 	public static void main(String[] args) throws Exception {
 		logger.info("AppSubmitter args: " + String.join(" ", args));
-		appJar = args[0];
-		conf = new YarnConfiguration();
-
-		YarnClient yarnClient = YarnClient.createYarnClient();
-		yarnClient.init(conf);
-		yarnClient.start();
-
-		printNodes(yarnClient);
+		if ("diff".equals(args[0])) {
+			double threshold = args.length > 3 ? Double.parseDouble(args[3]) : RunReport.DEFAULT_THRESHOLD;
+			int regressions = RunReport.diff(RunReport.load(args[1]), RunReport.load(args[2]), threshold, System.out);
+			System.exit(regressions > 0 ? 1 : 0);
+		}
+		YarnClient yarnClient = startYarnClient(args[0]);
 
 		String queueName = System.getProperty("yarn.queue", "bd_power");
 
 		SubmitterParams ap = new SubmitterParams(args);
-		String appName = ContainerLauncher.APPLICATION_NAME + ":" + ap.numContainers + "x" + ap.containerMemSize;
-		logger.info("Starting {} of {} cont * {} MB", appName, ap.numContainers, ap.containerMemSize);
+		if (ap.scenarioFile != null) {
+			// fail fast on malformed scenario instead of in the AM container
+			Scenario.load(ap.scenarioFile);
+		}
+		String appName = ContainerLauncher.APPLICATION_NAME + ":" + ap.describe();
+		logger.info("Starting {}", appName);
 		ApplicationId appId = submitAppMaster(yarnClient, appName, ap, queueName);
 
 		AppMonitor.monitorApplication(yarnClient, appId);
+		fetchRunReport(appId, new File("run-report-" + appId + ".properties"));
+	}
+
+	/**
+	 * Copies run report written by AM from staging dir
+	 */
+	public static File fetchRunReport(ApplicationId appId, File local) {
+		try {
+			FileSystem fs = FileSystem.get(conf);
+			// raw local file system: no .crc next to the report
+			fs.copyToLocalFile(false, ContainerLauncher.stagingPath(fs, conf, appId.toString(), RunReport.FILE_NAME),
+					new Path(local.getAbsolutePath()), true);
+			logger.info("Run report saved into {}", local);
+			return local;
+		} catch (IOException e) {
+			logger.warn("No run report of {}", appId, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Connects to RM; the jar is shipped to every AM submitted afterwards
+	 */
+	public static YarnClient startYarnClient(String jar) throws YarnException, IOException {
+		return startYarnClient(new YarnConfiguration(), jar);
+	}
+
+	public static YarnClient startYarnClient(Configuration yarnConf, String jar) throws YarnException, IOException {
+		appJar = jar;
+		conf = yarnConf;
+
+		YarnClient yarnClient = YarnClient.createYarnClient();
+		yarnClient.init(conf);
+		yarnClient.start();
+
+		printNodes(yarnClient);
+		return yarnClient;
 	}
 
 	public static ApplicationId submitAppMaster(YarnClient yarnClient, String appName, SubmitterParams ap, String queueName)
@@ -129,6 +192,9 @@ public class AppSubmitter {
 
 		// Copy the application master jar to the filesystem
 		launcher.addToLocalResources(appJar, AppMaster.CONTAINER_JAR);
+		if (ap.scenarioFile != null) {
+			launcher.addToLocalResources(ap.scenarioFile, AppMaster.SCENARIO_FILE);
+		}
 		amContainer.setLocalResources(launcher.getLocalResources());
 
 		// Set the env variables to be setup in the env where the application master will be run
@@ -0,0 +1,131 @@
+package murphy;
+
+import java.util.Arrays;
+
+/**
+ * Content with predictable footprint on hosts with memory compression and deduplication.
+ * Every 4K page is either zero, a copy of one template page (KSM merges them), or unique:
+ * xorshift random words for 1/ratio of the page followed by zeros, so it compresses about ratio times.
+ * Page kind is chosen per run of 16 pages: Java arrays are not page aligned, and a run keeps
+ * OS pages inside it all zero or all equal to a rotated template.
+ */
+public class CompressiblePattern extends FillPattern {
+
+	private static final int PAGE_WORDS = 4096 / 8;
+	private static final int RUN_PAGES = 16;
+
+	private static final int ZERO = 0;
+	private static final int DUPLICATE = 1;
+	private static final int UNIQUE = 2;
+
+	private final long seed;
+	private final double ratio;
+	private final double duplicates;
+	private final double zeros;
+	private final int randomWords;
+	private final long[] template = new long[PAGE_WORDS];
+
+	/**
+	 * @param ratio target compression ratio of unique pages, 1 for incompressible
+	 * @param duplicates fraction of pages equal to the template page
+	 * @param zeros fraction of zero pages
+	 */
+	public CompressiblePattern(long seed, double ratio, double duplicates, double zeros) {
+		super("compressible");
+		if (ratio < 1 || duplicates < 0 || zeros < 0 || duplicates + zeros > 1) {
+			throw new IllegalArgumentException("Bad compressible pattern: ratio " + ratio
+					+ ", duplicates " + duplicates + ", zeros " + zeros);
+		}
+		this.seed = seed;
+		this.ratio = ratio;
+		this.duplicates = duplicates;
+		this.zeros = zeros;
+		this.randomWords = (int) Math.round(PAGE_WORDS / ratio);
+		randomPage(template, 0, PAGE_WORDS, mix(seed));
+	}
+
+	@Override
+	public double physicalFraction() {
+		return (1 - duplicates - zeros) / ratio;
+	}
+
+	@Override
+	public void fill(long[] words, int chunk) {
+		long firstPage = (long) chunk * words.length / PAGE_WORDS;
+		for (int off = 0, p = 0; off < words.length; off += PAGE_WORDS, p++) {
+			int len = Math.min(PAGE_WORDS, words.length - off);
+			long page = firstPage + p;
+			switch (kind(page)) {
+			case ZERO:
+				Arrays.fill(words, off, off + len, 0);
+				break;
+			case DUPLICATE:
+				System.arraycopy(template, 0, words, off, len);
+				break;
+			default:
+				int random = Math.min(randomWords, len);
+				randomPage(words, off, random, pageSeed(page));
+				Arrays.fill(words, off + random, off + len, 0);
+			}
+		}
+	}
+
+	@Override
+	public long verify(long[] words, int chunk, String node) {
+		long[] expected = new long[PAGE_WORDS];
+		long firstPage = (long) chunk * words.length / PAGE_WORDS;
+		long mismatches = 0;
+		for (int off = 0, p = 0; off < words.length; off += PAGE_WORDS, p++) {
+			int len = Math.min(PAGE_WORDS, words.length - off);
+			expectedPage(expected, firstPage + p);
+			for (int i = 0; i < len; i++) {
+				if (words[off + i] != expected[i] && mismatches++ < 10) {
+					logMismatch(node, chunk, off + i, expected[i], words[off + i]);
+				}
+			}
+		}
+		return mismatches;
+	}
+
+	@Override
+	public long value(int chunk, int index, long address) {
+		long[] expected = new long[PAGE_WORDS];
+		expectedPage(expected, address / PAGE_WORDS);
+		return expected[(int) (address % PAGE_WORDS)];
+	}
+
+	private void expectedPage(long[] page, long pageIndex) {
+		switch (kind(pageIndex)) {
+		case ZERO:
+			Arrays.fill(page, 0);
+			break;
+		case DUPLICATE:
+			System.arraycopy(template, 0, page, 0, PAGE_WORDS);
+			break;
+		default:
+			randomPage(page, 0, randomWords, pageSeed(pageIndex));
+			Arrays.fill(page, randomWords, PAGE_WORDS, 0);
+		}
+	}
+
+	private int kind(long page) {
+		double u = (mix(seed ^ (page / RUN_PAGES)) >>> 11) * 0x1.0p-53;
+		return u < zeros ? ZERO : u < zeros + duplicates ? DUPLICATE : UNIQUE;
+	}
+
+	private long pageSeed(long page) {
+		return mix(seed + page * 0x9e3779b97f4a7c15L) | 1;
+	}
+
+	/**
+	 * xorshift64: three shifts per word, much cheaper than hashing every position
+	 */
+	private static void randomPage(long[] words, int off, int len, long x) {
+		for (int i = off; i < off + len; i++) {
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+			words[i] = x;
+		}
+	}
+}
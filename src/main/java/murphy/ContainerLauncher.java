@@ -34,12 +34,16 @@ public class ContainerLauncher {
 
 	public static final String APPLICATION_NAME = "Memory.Stress";
 
+	/** Directory on default FS where jars and scenarios are copied for localization */
+	public static final String STAGING_DIR_KEY = "murphy.staging.dir";
+
 	public static final Logger logger = LoggerFactory.getLogger(ContainerLauncher.class);
 
 	protected final FileSystem fs;
 	protected final Configuration conf;
 	protected final String appId;
 	protected final Map<String, LocalResource> localResources = new HashMap<String, LocalResource>();
+	protected final Map<String, String> extraEnv = new HashMap<>();
 
 	protected ByteBuffer allTokens;
 	protected UserGroupInformation appSubmitterUgi;
@@ -63,6 +67,13 @@ public class ContainerLauncher {
 		return localResources;
 	}
 
+	/**
+	 * Adds variable to the environment of containers launched afterwards
+	 */
+	public void setEnv(String name, String value) {
+		extraEnv.put(name, value);
+	}
+
 	/**
 	 * addToLocalResources() writes resource to the Hadoop File System and adds
 	 * it to localResources dictionary, that will be sent with Container Request
@@ -82,9 +93,7 @@ public class ContainerLauncher {
 			return;
 		}
 
-		String suffix = APPLICATION_NAME + File.separator + fileDstPath;
-		Path jarDir = fs.getHomeDirectory();
-		Path dst = new Path("hdfs://analytics2dev/tmp", suffix);
+		Path dst = getStagingPath(fileDstPath);
 
 		fs.copyFromLocalFile(new Path(fileSrcPath), dst);
 		logger.debug("Copied {} into {}", fileSrcPath, dst);
@@ -98,6 +107,18 @@ public class ContainerLauncher {
 		localResources.put(fileDstPath, resource);
 	}
 
+	public Path getStagingPath(String fileName) {
+		return stagingPath(fs, conf, appId, fileName);
+	}
+
+	/**
+	 * Per application, so that concurrent submissions do not overwrite resources being localized
+	 */
+	public static Path stagingPath(FileSystem fs, Configuration conf, String appId, String fileName) {
+		String suffix = APPLICATION_NAME + File.separator + appId + File.separator + fileName;
+		return fs.makeQualified(new Path(conf.get(STAGING_DIR_KEY, "/tmp"), suffix));
+	}
+
 	public ContainerLaunchContext createContainerLaunchContext(String containerJar, List<String> command) {
 		ContainerLaunchContext containerContext = Records.newRecord(ContainerLaunchContext.class);
 		// ContainerLaunchContext.newInstance(localResources, shellEnv, commands, null, allTokens.duplicate(), null);
@@ -115,7 +136,9 @@ public class ContainerLauncher {
 		}
 
 		// Setup environment
-		containerContext.setEnvironment(createContainerEnv(conf));
+		Map<String, String> env = createContainerEnv(conf);
+		env.putAll(extraEnv);
+		containerContext.setEnvironment(env);
 		containerContext.setTokens(allTokens.duplicate());
 		return containerContext;
 	}
@@ -179,6 +202,11 @@ public class ContainerLauncher {
 			classPathEnv.append(ApplicationConstants.CLASS_PATH_SEPARATOR);
 			classPathEnv.append(c.trim());
 		}
+		if (conf.getBoolean(YarnConfiguration.IS_MINI_YARN_CLUSTER, false)) {
+			// in-process cluster: containers run classes and config of the JVM hosting it
+			classPathEnv.append(ApplicationConstants.CLASS_PATH_SEPARATOR);
+			classPathEnv.append(System.getProperty("java.class.path"));
+		}
 		Map<String, String> env = new HashMap<>();
 		env.put("CLASSPATH", classPathEnv.toString());
 		String hadoopHomeDir = System.getenv("HADOOP_HOME");
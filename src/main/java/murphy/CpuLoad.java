@@ -0,0 +1,142 @@
+package murphy;
+
+import java.lang.management.ManagementFactory;
+import java.nio.LongBuffer;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Busy threads running next to the held memory. Every thread spins for duty share of each 100 ms period
+ * and sleeps the rest. CPU time the threads actually got is compared with the target, so CFS quota
+ * throttling and noisy neighbours show up as achieved share below 1.
+ */
+public class CpuLoad {
+
+	private static final Logger logger = LoggerFactory.getLogger(CpuLoad.class);
+
+	/** Integer arithmetic in registers */
+	public static final String ALU = "alu";
+	/** Random reads across held chunks: cache misses and memory bandwidth. Reads only, content stays verifiable */
+	public static final String MEMORY = "memory";
+
+	private static final long PERIOD_NS = 100_000_000L;
+	private static final int STEPS = 1024;
+
+	private final int threads;
+	private final double duty;
+	private final String kernel;
+	private final List<long[]> memory;
+	private final List<LongBuffer> offHeap;
+	private final Thread[] workers;
+	private final long[] cpuNs;
+
+	private volatile boolean running = true;
+	private long startNs;
+	private long stopNs;
+	private volatile long sink;
+
+
+	/**
+	 * @param memory held chunks on heap
+	 * @param offHeap held chunks in direct buffers, read by absolute get only
+	 */
+	public CpuLoad(int threads, double duty, String kernel, List<long[]> memory, List<LongBuffer> offHeap) {
+		if (!ALU.equals(kernel) && !MEMORY.equals(kernel)) {
+			throw new IllegalArgumentException("Unknown CPU kernel: " + kernel);
+		}
+		if (MEMORY.equals(kernel) && memory.isEmpty() && offHeap.isEmpty()) {
+			logger.warn("No memory held for {} kernel, running {}", MEMORY, ALU);
+			kernel = ALU;
+		}
+		this.threads = threads;
+		this.duty = Math.max(0, Math.min(1, duty));
+		this.kernel = kernel;
+		this.memory = memory;
+		this.offHeap = offHeap;
+		this.workers = new Thread[threads];
+		this.cpuNs = new long[threads];
+	}
+
+	public CpuLoad start() {
+		logger.info("Starting {} {} threads at duty cycle {}", threads, kernel, duty);
+		startNs = System.nanoTime();
+		for (int i = 0; i < threads; i++) {
+			final int id = i;
+			workers[i] = new Thread(() -> spin(id), "cpu-load-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		return this;
+	}
+
+	public void stop() throws InterruptedException {
+		running = false;
+		for (Thread t : workers) {
+			t.interrupt();
+			t.join();
+		}
+		stopNs = System.nanoTime();
+	}
+
+	/**
+	 * Adds target and achieved CPU time of the busy threads and cgroup throttling into report
+	 */
+	public void addReport(WorkerReport report) {
+		long used = 0;
+		for (long ns : cpuNs) {
+			used += ns;
+		}
+		long target = (long) ((stopNs - startNs) * duty * threads);
+		logger.info("CPU load: {} ms used of {} ms target", used / 1000000, target / 1000000);
+		report.set("cpu.threads", threads)
+				.set("cpu.duty", duty)
+				.set("cpu.kernel", kernel)
+				.set("cpu.target.ms", target / 1000000)
+				.set("cpu.used.ms", used / 1000000)
+				.set("cpu.achieved", target == 0 ? 1.0 : (double) used / target);
+		ProcStats.addCpuThrottling(report);
+	}
+
+	private void spin(int id) {
+		long busyNs = (long) (PERIOD_NS * duty);
+		long x = FillPattern.mix(id + 1);
+		long acc = 0;
+		boolean touch = MEMORY.equals(kernel) && !memory.isEmpty();
+		boolean touchOffHeap = MEMORY.equals(kernel) && !offHeap.isEmpty();
+		while (running) {
+			long periodStart = System.nanoTime();
+			while (System.nanoTime() - periodStart < busyNs) {
+				if (touch) {
+					for (int s = 0; s < STEPS; s++) {
+						x = x * 6364136223846793005L + 1442695040888963407L;
+						long[] chunk = memory.get((int) ((x >>> 33) % memory.size()));
+						acc += chunk[(int) ((x >>> 1) % chunk.length)];
+					}
+				} else if (touchOffHeap) {
+					for (int s = 0; s < STEPS; s++) {
+						x = x * 6364136223846793005L + 1442695040888963407L;
+						LongBuffer chunk = offHeap.get((int) ((x >>> 33) % offHeap.size()));
+						acc += chunk.get((int) ((x >>> 1) % chunk.capacity()));
+					}
+				} else {
+					for (int s = 0; s < STEPS; s++) {
+						x = x * 6364136223846793005L + 1442695040888963407L;
+						acc += x ^ (x >>> 29);
+					}
+				}
+			}
+			long idleNs = PERIOD_NS - (System.nanoTime() - periodStart);
+			if (idleNs > 0) {
+				try {
+					Thread.sleep(idleNs / 1000000, (int) (idleNs % 1000000));
+				} catch (InterruptedException e) {
+					// stop() wakes us up
+				}
+			}
+		}
+		sink += acc;
+		cpuNs[id] = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+	}
+}
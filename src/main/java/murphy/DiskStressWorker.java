@@ -0,0 +1,270 @@
+package murphy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local disk load: a file in every YARN local dir of the container is written and read back with
+ * FileChannel positional I/O, pass after pass until hold seconds are over. Dirs are spread over a bounded
+ * number of threads with a block buffer each, so buffer memory does not grow with disks of the node.
+ * Java 8 has no O_DIRECT, so reads come from page cache unless files are bigger than free memory of the node.
+ */
+public class DiskStressWorker {
+
+	private static final Logger logger = LoggerFactory.getLogger(DiskStressWorker.class);
+
+	public static final String SEQUENTIAL = "sequential";
+	public static final String RANDOM = "random";
+
+	/** Never fsync, leave write back to the kernel */
+	public static final String FSYNC_NONE = "none";
+	/** fsync once after every write pass */
+	public static final String FSYNC_END = "end";
+	/** fsync after every block */
+	public static final String FSYNC_BLOCK = "block";
+
+	private final long fileSize;
+	private final int blockSize;
+	private final int threads;
+	private final boolean direct;
+	private final String fsync;
+	private final String access;
+	private final long seed;
+
+	private final long blocks;
+	/** Shuffled block numbers of random access, shared by all files, null for sequential access */
+	private final int[] order;
+
+	private long writeNs, writeBytes, writeOps;
+	private long readNs, readBytes, readOps;
+
+
+	public DiskStressWorker(long fileSize, int blockSize, int threads, boolean direct, String fsync, String access,
+			long seed) {
+		this.fileSize = fileSize;
+		this.blockSize = blockSize;
+		this.threads = Math.max(1, threads);
+		this.direct = direct;
+		this.fsync = fsync;
+		this.access = access;
+		this.seed = seed;
+		this.blocks = Math.max(1, fileSize / blockSize);
+		this.order = RANDOM.equals(access) ? shuffledBlocks(blocks, seed) : null;
+	}
+
+	/**
+	 * Every block once per pass in shuffled order. Heap of the task counts with this array
+	 */
+	static int[] shuffledBlocks(long blocks, long seed) {
+		int[] order = new int[(int) blocks];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Random random = new Random(seed);
+		for (int i = order.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+		return order;
+	}
+
+	public static void main(String[] args) throws Exception {
+		logger.info("DiskStressWorker started with parameters: " + String.join(" ", args));
+		DiskStressWorker worker = new DiskStressWorker(
+				Long.getLong("murphy.disk.size", 1L << 30),
+				Integer.getInteger("murphy.disk.block", 1 << 20),
+				Integer.getInteger("murphy.disk.threads", 8),
+				Boolean.parseBoolean(System.getProperty("murphy.disk.direct", "true")),
+				System.getProperty("murphy.disk.fsync", FSYNC_END),
+				System.getProperty("murphy.disk.access", SEQUENTIAL),
+				Long.getLong("murphy.seed", 0));
+		WorkerReport report = worker.run(localDirs(), Integer.getInteger("murphy.hold", 120));
+		report.send();
+		logger.info("DiskStressWorker finished");
+	}
+
+	/**
+	 * Container local dirs given by NM, one per disk of the node
+	 */
+	private static List<Path> localDirs() {
+		List<Path> dirs = new ArrayList<>();
+		String env = System.getenv("LOCAL_DIRS");
+		for (String dir : (env == null ? System.getProperty("java.io.tmpdir") : env).split(",")) {
+			if (!dir.trim().isEmpty()) {
+				dirs.add(Paths.get(dir.trim()));
+			}
+		}
+		return dirs;
+	}
+
+	public WorkerReport run(List<Path> dirs, int holdSec) throws Exception {
+		String container = System.getenv("CONTAINER_ID") != null ? System.getenv("CONTAINER_ID") : "local";
+		List<Lane> lanes = new ArrayList<>();
+		for (int i = 0; i < Math.min(threads, dirs.size()); i++) {
+			lanes.add(new Lane(seed + i));
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(lanes.size());
+		int passes = 0;
+		try {
+			for (int i = 0; i < dirs.size(); i++) {
+				// dirs beyond thread count are taken in turns
+				lanes.get(i % lanes.size()).streams.add(
+						new Stream(dirs.get(i).resolve("murphy-disk-" + container + ".dat"), seed + i));
+			}
+			logger.info("Writing and reading {} bytes in {} byte {} blocks, fsync {}, by {} threads in {}", fileSize,
+					blockSize, access, fsync, lanes.size(), dirs);
+			long deadline = System.currentTimeMillis() + holdSec * 1000L;
+			do {
+				writeNs += phase(pool, lanes, true);
+				readNs += phase(pool, lanes, false);
+				passes++;
+			} while (System.currentTimeMillis() < deadline);
+		} finally {
+			pool.shutdownNow();
+			for (Lane lane : lanes) {
+				for (Stream s : lane.streams) {
+					s.close();
+				}
+			}
+		}
+
+		WorkerReport report = new WorkerReport()
+				.set("node", WorkerReport.node())
+				.set("disk.dirs", dirs.size())
+				.set("disk.threads", lanes.size())
+				.set("disk.block", blockSize)
+				.set("disk.access", access)
+				.set("disk.fsync", fsync)
+				.set("disk.passes", passes)
+				.set("disk.write.mbps", rate(writeBytes / 1048576.0, writeNs))
+				.set("disk.write.iops", rate(writeOps, writeNs))
+				.set("disk.read.mbps", rate(readBytes / 1048576.0, readNs))
+				.set("disk.read.iops", rate(readOps, readNs));
+		logger.info("Disk load done: {}", report.format().replace('\n', ' '));
+		return report;
+	}
+
+	/**
+	 * One write or read pass over all files, threads in parallel
+	 *
+	 * @return wall time of the pass
+	 */
+	private long phase(ExecutorService pool, List<Lane> lanes, boolean write) throws Exception {
+		long start = System.nanoTime();
+		List<Future<Long>> results = new ArrayList<>();
+		for (Lane lane : lanes) {
+			results.add(pool.submit((Callable<Long>) () -> lane.pass(write)));
+		}
+		for (Future<Long> f : results) {
+			long ops = f.get();
+			if (write) {
+				writeOps += ops;
+				writeBytes += ops * blockSize;
+			} else {
+				readOps += ops;
+				readBytes += ops * blockSize;
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static double rate(double amount, long ns) {
+		return ns == 0 ? 0 : amount * 1e9 / ns;
+	}
+
+	/** Files of one thread and the block buffer they share */
+	private class Lane {
+		private final ByteBuffer buffer;
+		private final List<Stream> streams = new ArrayList<>();
+
+		Lane(long seed) {
+			this.buffer = direct ? ByteBuffer.allocateDirect(blockSize) : ByteBuffer.allocate(blockSize);
+			Random random = new Random(seed);
+			// incompressible content, so that compressing or deduplicating storage does not flatter the numbers
+			while (buffer.remaining() >= 8) {
+				buffer.putLong(random.nextLong());
+			}
+		}
+
+		long pass(boolean write) throws IOException {
+			long ops = 0;
+			for (Stream s : streams) {
+				ops += write ? s.write(buffer) : s.read(buffer);
+			}
+			return ops;
+		}
+	}
+
+	/** File in one local dir, it walks the shared random order from its own offset */
+	private class Stream {
+		private final Path file;
+		private final FileChannel channel;
+		private final long offset;
+
+		Stream(Path file, long seed) throws IOException {
+			this.file = file;
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			this.offset = (new Random(seed).nextLong() & Long.MAX_VALUE) % blocks;
+		}
+
+		long write(ByteBuffer buffer) throws IOException {
+			for (long i = 0; i < blocks; i++) {
+				long position = block(i) * blockSize;
+				buffer.clear();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer, position + buffer.position());
+				}
+				if (FSYNC_BLOCK.equals(fsync)) {
+					channel.force(false);
+				}
+			}
+			if (FSYNC_END.equals(fsync)) {
+				channel.force(false);
+			}
+			return blocks;
+		}
+
+		long read(ByteBuffer buffer) throws IOException {
+			for (long i = 0; i < blocks; i++) {
+				long position = block(i) * blockSize;
+				buffer.clear();
+				int n;
+				do {
+					n = channel.read(buffer, position + buffer.position());
+				} while (n > 0 && buffer.hasRemaining());
+			}
+			return blocks;
+		}
+
+		private long block(long i) {
+			return order == null ? i : order[(int) ((i + offset) % blocks)];
+		}
+
+		void close() {
+			try {
+				channel.close();
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				logger.warn("Failed to remove {}", file, e);
+			}
+		}
+	}
+}
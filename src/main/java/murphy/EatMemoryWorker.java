@@ -6,11 +6,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
 import java.util.*;
+import java.util.stream.IntStream;
 
 public class EatMemoryWorker {
 	private static final Logger logger = LoggerFactory.getLogger(EatMemoryWorker.class);
 
+	/** Exit status of a worker which found eaten memory different from what it wrote */
+	public static final int EXIT_CORRUPTED = 3;
+
+	/** Chunks are long[] on Java heap */
+	public static final String HEAP = "heap";
+	/** Chunks are direct buffers malloc'ed outside of the heap */
+	public static final String DIRECT = "direct";
+
+	/** Direct chunks are filled and verified through a heap array of this many words */
+	private static final int STAGE_WORDS = 1024 * 1024 / 8;
+
 	private Configuration conf;
 
 
@@ -18,37 +34,163 @@ public class EatMemoryWorker {
 		logger.info("EatMemoryWorker started with parameters: " + String.join(" ", args));
 		long memorySize = Long.valueOf(args[0]);
 
+		long sampleMs = Long.getLong("murphy.sample.ms", 1000);
+		if (sampleMs > 0) {
+			MemorySampler sampler = new MemorySampler(sampleMs, Integer.getInteger("murphy.sample.capacity", 3600));
+			sampler.start();
+			// hook runs on normal exit as well as on SIGTERM of NM killing the container over limit
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				sampler.stop();
+				WorkerReport report = new WorkerReport();
+				String logDir = System.getProperty("murphy.log.dir", ".");
+				sampler.dump(new File(logDir, "memory-samples.tsv").getPath(), report);
+				report.send();
+			}));
+		}
+
 		boolean valid = run(memorySize);
 
 		logger.info("EatMemoryWorker finished");
 
 		if (!valid) {
-			System.exit(1);
+			System.exit(EXIT_CORRUPTED);
 		}
 	}
 
 	public static boolean run(long memorySize) throws Exception {
+		// load profile: memory is filled evenly during ramp seconds, then held for hold seconds
+		int rampSec = Integer.getInteger("murphy.ramp", 0);
+		int holdSec = Integer.getInteger("murphy.hold", 120);
+		FillPattern pattern = FillPattern.forName(System.getProperty("murphy.pattern", "sequence"),
+				Long.getLong("murphy.seed", 0),
+				Double.parseDouble(System.getProperty("murphy.compression", "1")),
+				Double.parseDouble(System.getProperty("murphy.duplicates", "0")),
+				Double.parseDouble(System.getProperty("murphy.zeros", "0")));
+
+		boolean direct = DIRECT.equals(System.getProperty("murphy.allocation", HEAP));
+		// node wide counters, the difference is only indicative on a shared node
+		long thpFaults = ProcStats.vmstat("thp_fault_alloc");
+		long thpFallbacks = ProcStats.vmstat("thp_fault_fallback");
+		long thpCollapses = ProcStats.vmstat("thp_collapse_alloc");
+
 		printMemory("Start");
 		int chunkSize = (100 * 1024 * 1024);
 		int chunks = (int) ((memorySize + chunkSize - 1) / chunkSize);
-		List<byte[]> occupy = new ArrayList<>();
-		for (int i = 0; i < chunks; i++) {
-			occupy.add(new byte[chunkSize]);
-		}
+		long rampPauseMs = chunks == 0 ? 0 : rampSec * 1000L / chunks;
+		List<long[]> occupy = new ArrayList<>();
+		List<LongBuffer> offHeap = new ArrayList<>();
 
-		logger.info("Allocated " + chunks + " x " + chunkSize + " bytes; sleeping for 120 s");
+		logger.info("Allocating " + chunks + " x " + chunkSize + " bytes of " + pattern.name + " during " + rampSec
+				+ " s" + (direct ? " off heap" : ""));
 
+		long fillStart = System.currentTimeMillis();
+		long[] stage = direct ? new long[STAGE_WORDS] : null;
 		for (int i = 0; i < chunks; i++) {
-			byte[] bytes = occupy.get(i);
-			for (int j = 0; j < bytes.length; j++) {
-				bytes[j] = (byte) ((i + j) % 255 - 128);
+			if (direct) {
+				LongBuffer words = ByteBuffer.allocateDirect(chunkSize).order(ByteOrder.nativeOrder()).asLongBuffer();
+				offHeap.add(words);
+				fillDirect(words, i, pattern, stage);
+			} else {
+				// words rather than bytes: 8x fewer stores to fill the same memory
+				long[] words = new long[chunkSize / 8];
+				occupy.add(words);
+				pattern.fill(words, i);
+			}
+			if (rampPauseMs > 0) {
+				Thread.sleep(rampPauseMs);
 			}
 		}
 
-		Thread.sleep(120 * 1000);
+		// footprint at target lets AM size next containers of this size
+		WorkerReport report = new WorkerReport();
+		report.set("payload.bytes", (long) chunks * chunkSize);
+		// time to footprint counts from JVM start, so that heap pre-touch at startup is included
+		report.set("footprint.ms", ManagementFactory.getRuntimeMXBean().getUptime());
+		report.set("fill.ms", System.currentTimeMillis() - fillStart);
+		report.set("anonhuge.kb", ProcStats.smapsKB("AnonHugePages"));
+		report.set("thp.enabled", ProcStats.thpSetting("enabled"));
+		report.set("thp.defrag", ProcStats.thpSetting("defrag"));
+		report.set("thp.fault_alloc", ProcStats.vmstat("thp_fault_alloc") - thpFaults);
+		report.set("thp.fault_fallback", ProcStats.vmstat("thp_fault_fallback") - thpFallbacks);
+		// what zswap/KSM could leave of the payload, to compare with sampled RSS/swap
+		report.set("payload.physical.bytes", (long) (pattern.physicalFraction() * chunks * chunkSize));
+		ProcStats.addFootprint(report);
+		report.send();
+
+		int cpuThreads = Integer.getInteger("murphy.cpu.threads", 0);
+		CpuLoad cpu = null;
+		if (cpuThreads > 0) {
+			cpu = new CpuLoad(cpuThreads, Double.parseDouble(System.getProperty("murphy.cpu.duty", "1")),
+					System.getProperty("murphy.cpu.kernel", CpuLoad.ALU), occupy, offHeap).start();
+		}
+		logger.info("Filled {} chunks; holding for {} s", chunks, holdSec);
+		Thread.sleep(holdSec * 1000L);
+		// khugepaged collapses 4K pages into huge ones in background during hold
+		new WorkerReport()
+				.set("hold.anonhuge.kb", ProcStats.smapsKB("AnonHugePages"))
+				.set("thp.collapse_alloc", ProcStats.vmstat("thp_collapse_alloc") - thpCollapses)
+				.send();
+		if (cpu != null) {
+			cpu.stop();
+			WorkerReport cpuReport = new WorkerReport();
+			cpu.addReport(cpuReport);
+			cpuReport.send();
+		}
 		printMemory("END");
 
-		return occupy.size() == chunks && occupy.get(0).length == chunkSize; // Attempt to defeat HotSpot optimizer
+		return direct ? verifyDirect(offHeap, pattern) : verify(occupy, pattern);
+	}
+
+	/**
+	 * Fills direct chunk by stages of STAGE_WORDS, each stage is a pattern chunk of its own
+	 */
+	private static void fillDirect(LongBuffer words, int chunk, FillPattern pattern, long[] stage) {
+		int stages = words.capacity() / stage.length;
+		for (int s = 0; s < stages; s++) {
+			pattern.fill(stage, chunk * stages + s);
+			words.put(stage);
+		}
+	}
+
+	private static boolean verifyDirect(List<LongBuffer> offHeap, FillPattern pattern) {
+		String node = WorkerReport.node();
+		long start = System.currentTimeMillis();
+		long mismatches = IntStream.range(0, offHeap.size()).parallel()
+				.mapToLong(i -> {
+					LongBuffer words = offHeap.get(i).duplicate();
+					words.clear();
+					long[] stage = new long[STAGE_WORDS];
+					int stages = words.capacity() / stage.length;
+					long m = 0;
+					for (int s = 0; s < stages; s++) {
+						words.get(stage);
+						m += pattern.verify(stage, i * stages + s, node);
+					}
+					return m;
+				})
+				.sum();
+		return reportVerified(offHeap.size(), pattern, node, start, mismatches);
+	}
+
+	/**
+	 * Re-reads all chunks in parallel and compares them with the pattern
+	 */
+	private static boolean verify(List<long[]> occupy, FillPattern pattern) {
+		String node = WorkerReport.node();
+		long start = System.currentTimeMillis();
+		long mismatches = IntStream.range(0, occupy.size()).parallel()
+				.mapToLong(i -> pattern.verify(occupy.get(i), i, node))
+				.sum();
+		return reportVerified(occupy.size(), pattern, node, start, mismatches);
+	}
+
+	private static boolean reportVerified(int chunks, FillPattern pattern, String node, long start, long mismatches) {
+		logger.info("Verified {} chunks of {} in {} ms: {} corrupted words", chunks, pattern.name,
+				System.currentTimeMillis() - start, mismatches);
+		if (mismatches > 0) {
+			new WorkerReport().set("node", node).set("corrupted.words", mismatches).send();
+		}
+		return mismatches == 0;
 	}
 
 	private static void printMemory(String marker) {
@@ -0,0 +1,121 @@
+package murphy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deterministic content of eaten memory. Every word is a function of its position,
+ * so memory can be verified after hold without keeping a copy (memtester-style).
+ */
+public abstract class FillPattern {
+
+	private static final Logger logger = LoggerFactory.getLogger(FillPattern.class);
+
+	/** Mismatches logged per chunk, the rest is only counted */
+	private static final int MAX_LOGGED = 10;
+
+	public final String name;
+
+	protected FillPattern(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param chunk chunk number
+	 * @param index word index within chunk
+	 * @param address word index within all eaten memory
+	 */
+	public abstract long value(int chunk, int index, long address);
+
+	public void fill(long[] words, int chunk) {
+		long base = (long) chunk * words.length;
+		for (int i = 0; i < words.length; i++) {
+			words[i] = value(chunk, i, base + i);
+		}
+	}
+
+	/**
+	 * @return number of words differing from the pattern
+	 */
+	public long verify(long[] words, int chunk, String node) {
+		long base = (long) chunk * words.length;
+		long mismatches = 0;
+		for (int i = 0; i < words.length; i++) {
+			long expected = value(chunk, i, base + i);
+			if (words[i] != expected && mismatches++ < MAX_LOGGED) {
+				logMismatch(node, chunk, i, expected, words[i]);
+			}
+		}
+		return mismatches;
+	}
+
+	protected static void logMismatch(String node, int chunk, int index, long expected, long actual) {
+		logger.error("Memory corruption on {}: chunk {} offset {}: expected {} got {} (xor {})", node,
+				chunk, (long) index * 8, Long.toHexString(expected), Long.toHexString(actual),
+				Long.toHexString(expected ^ actual));
+	}
+
+	/**
+	 * Expected share of the payload left after kernel compression (zswap/zram) and page merging (KSM)
+	 */
+	public double physicalFraction() {
+		return 1.0;
+	}
+
+	public static FillPattern forName(String name, long seed) {
+		return forName(name, seed, 1.0, 0, 0);
+	}
+
+	/**
+	 * @param compression target compression ratio of "compressible" pattern, see {@link CompressiblePattern}
+	 * @param duplicates fraction of identical pages of "compressible" pattern
+	 * @param zeros fraction of zero pages of "compressible" pattern
+	 */
+	public static FillPattern forName(String name, long seed, double compression, double duplicates, double zeros) {
+		switch (name) {
+		case "sequence":
+			return new FillPattern(name) {
+				@Override
+				public long value(int chunk, int index, long address) {
+					return chunk + index;
+				}
+			};
+		case "walking":
+			// walking ones, shifted per chunk so that neighbour chunks differ
+			return new FillPattern(name) {
+				@Override
+				public long value(int chunk, int index, long address) {
+					return 1L << ((chunk + index) & 63);
+				}
+			};
+		case "address":
+			// address-in-address catches bits stuck in address lines
+			return new FillPattern(name) {
+				@Override
+				public long value(int chunk, int index, long address) {
+					return address;
+				}
+			};
+		case "random":
+			return new FillPattern(name) {
+				@Override
+				public long value(int chunk, int index, long address) {
+					return mix(seed + address * 0x9e3779b97f4a7c15L);
+				}
+			};
+		case "compressible":
+			return new CompressiblePattern(seed, compression, duplicates, zeros);
+		default:
+			throw new IllegalArgumentException("Unknown fill pattern: " + name);
+		}
+	}
+
+	/**
+	 * splitmix64 finalizer: random-looking word computable for any position
+	 */
+	public static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
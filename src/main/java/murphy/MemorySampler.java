@@ -0,0 +1,245 @@
+package murphy;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples footprint of this process as NodeManager sees it: /proc/self/status, /proc/self/smaps_rollup
+ * and memory cgroup usage. Files are kept open and re-read into preallocated buffer, samples go to
+ * preallocated ring buffer, so sampling itself does not allocate and does not disturb the measured heap.
+ */
+public class MemorySampler implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(MemorySampler.class);
+
+	public static final String[] FIELDS = { "time.ms", "rss.kb", "anon.kb", "swap.kb", "pss.kb",
+			"anonhuge.kb", "cgroup.usage.kb", "cgroup.anon.kb" };
+	private static final int TIME = 0;
+	private static final int RSS = 1;
+	private static final int ANON = 2;
+	private static final int SWAP = 3;
+	private static final int PSS = 4;
+	private static final int ANON_HUGE = 5;
+	private static final int CGROUP_USAGE = 6;
+	private static final int CGROUP_ANON = 7;
+
+	/** Max bytes per read(), bigger reads malloc native buffer in RandomAccessFile */
+	private static final int READ_STEP = 8192;
+
+	private static final byte[] VM_RSS = key("VmRSS:");
+	private static final byte[] RSS_ANON = key("RssAnon:");
+	private static final byte[] VM_SWAP = key("VmSwap:");
+	private static final byte[] PSS_KEY = key("Pss:");
+	private static final byte[] ANON_HUGE_PAGES = key("AnonHugePages:");
+	private static final byte[] NO_KEY = new byte[0];
+
+	private final long intervalMs;
+	private final int capacity;
+	private final long[] ring;
+	private final byte[] buf = new byte[64 * 1024];
+	private volatile long count = 0;
+
+	private final RandomAccessFile status;
+	private final RandomAccessFile smapsRollup;
+	private final RandomAccessFile cgroupUsage;
+	private final RandomAccessFile cgroupStat;
+	private final byte[] cgroupAnonKey;
+
+	private volatile boolean running = true;
+	private Thread thread;
+
+
+	public MemorySampler(long intervalMs, int capacity) {
+		this.intervalMs = intervalMs;
+		this.capacity = capacity;
+		this.ring = new long[capacity * FIELDS.length];
+
+		status = open("/proc/self/status");
+		smapsRollup = open("/proc/self/smaps_rollup");
+		String cgroupPath = ProcStats.cgroupPath("memory");
+		if (cgroupPath == null) {
+			cgroupUsage = null;
+			cgroupStat = null;
+			cgroupAnonKey = NO_KEY;
+		} else if (Files.exists(Paths.get("/sys/fs/cgroup", cgroupPath, "memory.current"))) {
+			// cgroup v2
+			cgroupUsage = open("/sys/fs/cgroup" + cgroupPath + "/memory.current");
+			cgroupStat = open("/sys/fs/cgroup" + cgroupPath + "/memory.stat");
+			cgroupAnonKey = key("anon ");
+		} else {
+			cgroupUsage = open("/sys/fs/cgroup/memory" + cgroupPath + "/memory.usage_in_bytes");
+			cgroupStat = open("/sys/fs/cgroup/memory" + cgroupPath + "/memory.stat");
+			cgroupAnonKey = key("rss ");
+		}
+	}
+
+	/**
+	 * Starts sampling in daemon thread
+	 */
+	public MemorySampler start() {
+		thread = new Thread(this, "memory-sampler");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	public void stop() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(intervalMs + 1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			sample();
+			try {
+				Thread.sleep(intervalMs);
+			} catch (InterruptedException e) {
+				// stop() wakes us up
+			}
+		}
+	}
+
+	public void sample() {
+		int base = (int) (count % capacity) * FIELDS.length;
+		ring[base + TIME] = System.currentTimeMillis();
+		int len = load(status);
+		ring[base + RSS] = field(len, VM_RSS);
+		ring[base + ANON] = field(len, RSS_ANON);
+		ring[base + SWAP] = field(len, VM_SWAP);
+		len = load(smapsRollup);
+		ring[base + PSS] = field(len, PSS_KEY);
+		ring[base + ANON_HUGE] = field(len, ANON_HUGE_PAGES);
+		len = load(cgroupUsage);
+		ring[base + CGROUP_USAGE] = kb(field(len, NO_KEY));
+		len = load(cgroupStat);
+		ring[base + CGROUP_ANON] = kb(field(len, cgroupAnonKey));
+		count++;
+	}
+
+	/**
+	 * Latest sample of the field, -1 if the field is not available on this host
+	 */
+	public long last(int field) {
+		long c = count;
+		return c == 0 ? -1 : ring[(int) ((c - 1) % capacity) * FIELDS.length + field];
+	}
+
+	/**
+	 * Writes samples kept in ring buffer as tab separated file and adds last/max values into report
+	 */
+	public void dump(String fileName, WorkerReport report) {
+		long c = count;
+		long first = Math.max(0, c - capacity);
+		long[] max = new long[FIELDS.length];
+		Arrays.fill(max, -1);
+		try (PrintWriter out = new PrintWriter(fileName, "UTF-8")) {
+			out.println(String.join("\t", FIELDS));
+			for (long i = first; i < c; i++) {
+				int base = (int) (i % capacity) * FIELDS.length;
+				StringBuilder line = new StringBuilder();
+				for (int f = 0; f < FIELDS.length; f++) {
+					line.append(f == 0 ? "" : "\t").append(ring[base + f]);
+					max[f] = Math.max(max[f], ring[base + f]);
+				}
+				out.println(line);
+			}
+			logger.info("Dumped {} memory samples into {}", c - first, fileName);
+		} catch (IOException e) {
+			logger.warn("Failed to dump memory samples into {}", fileName, e);
+		}
+		report.set("samples", c);
+		for (int f = 1; f < FIELDS.length; f++) {
+			report.set("last." + FIELDS[f], last(f));
+			report.set("max." + FIELDS[f], max[f]);
+		}
+	}
+
+	private int load(RandomAccessFile f) {
+		if (f == null) {
+			return -1;
+		}
+		try {
+			f.seek(0); // procfs and cgroupfs regenerate content on read from 0
+			int len = 0;
+			int n;
+			while (len < buf.length && (n = f.read(buf, len, Math.min(READ_STEP, buf.length - len))) > 0) {
+				len += n;
+			}
+			return len;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Parses number following the key at the beginning of a line, -1 if there is no such line
+	 */
+	private long field(int len, byte[] key) {
+		for (int line = 0; line < len; ) {
+			if (matches(line, len, key)) {
+				int i = line + key.length;
+				while (i < len && (buf[i] == ' ' || buf[i] == '\t')) {
+					i++;
+				}
+				long v = 0;
+				boolean digits = false;
+				while (i < len && buf[i] >= '0' && buf[i] <= '9') {
+					v = v * 10 + (buf[i++] - '0');
+					digits = true;
+				}
+				return digits ? v : -1;
+			}
+			while (line < len && buf[line] != '\n') {
+				line++;
+			}
+			line++;
+		}
+		return -1;
+	}
+
+	private boolean matches(int pos, int len, byte[] key) {
+		if (pos + key.length > len) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (buf[pos + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long kb(long bytes) {
+		return bytes < 0 ? bytes : bytes / 1024;
+	}
+
+	private static byte[] key(String key) {
+		return key.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static RandomAccessFile open(String fileName) {
+		try {
+			return new RandomAccessFile(fileName, "r");
+		} catch (FileNotFoundException e) {
+			logger.info("{} is not available, not sampled", fileName);
+			return null;
+		}
+	}
+}
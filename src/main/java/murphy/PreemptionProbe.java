@@ -0,0 +1,95 @@
+package murphy;
+
+import java.io.IOException;
+
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ApplicationReport;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.client.api.YarnClient;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import murphy.AppSubmitter.SubmitterParams;
+import murphy.appmaster.Scenario;
+
+/**
+ * Measures how fast the scheduler makes room for a burst: runs background scenario in one queue,
+ * and when its load is established submits burst scenario into another queue.
+ * Usage: yarn jar TheMurphy.jar murphy.PreemptionProbe TheMurphy.jar background.properties burst.properties
+ * with -Dyarn.queue=..., -Dyarn.burst.queue=...
+ *
+ * Only queue based preemption is exercised: CapacityScheduler of YARN 2.7 takes containers from queues
+ * over their guaranteed capacity, it has no application priorities and does not preempt between
+ * priorities of one app. Group priorities within a scenario only order allocations, AM logs when
+ * every group launch got fully allocated and which containers exited -102.
+ */
+public class PreemptionProbe {
+
+	private static final Logger logger = LoggerFactory.getLogger(PreemptionProbe.class);
+
+	private static final int PROBE_INTERVAL_MS = 500;
+
+	public static void main(String[] args) throws Exception {
+		logger.info("PreemptionProbe args: " + String.join(" ", args));
+		YarnClient yarnClient = AppSubmitter.startYarnClient(args[0]);
+
+		String bgQueue = System.getProperty("yarn.queue", "bd_power");
+		String burstQueue = System.getProperty("yarn.burst.queue", bgQueue);
+		long settleMs = Long.getLong("murphy.probe.settle", 300) * 1000;
+
+		SubmitterParams bg = new SubmitterParams(args[1]);
+		SubmitterParams burst = new SubmitterParams(args[2]);
+		// +1 for the AM container
+		int bgContainers = Scenario.load(bg.scenarioFile).getTotalTasks() + 1;
+		int burstContainers = Scenario.load(burst.scenarioFile).getTotalTasks() + 1;
+
+		ApplicationId bgId = AppSubmitter.submitAppMaster(yarnClient,
+				ContainerLauncher.APPLICATION_NAME + ":background:" + bg.describe(), bg, bgQueue);
+		int bgAllocated = waitForContainers(yarnClient, bgId, bgContainers, System.currentTimeMillis() + settleMs);
+		logger.info("Background {} settled with {} of {} containers", bgId, bgAllocated, bgContainers);
+
+		long burstStart = System.currentTimeMillis();
+		ApplicationId burstId = AppSubmitter.submitAppMaster(yarnClient,
+				ContainerLauncher.APPLICATION_NAME + ":burst:" + burst.describe(), burst, burstQueue);
+		int burstAllocated = waitForContainers(yarnClient, burstId, burstContainers, Long.MAX_VALUE);
+		long latency = System.currentTimeMillis() - burstStart;
+		if (burstAllocated >= burstContainers) {
+			logger.info("Burst {} fully allocated: {} containers in {} ms", burstId, burstContainers, latency);
+		} else {
+			logger.error("Burst {} finished before full allocation: {} of {} containers in {} ms",
+					burstId, burstAllocated, burstContainers, latency);
+		}
+
+		AppMonitor.monitorApplication(yarnClient, burstId);
+		AppMonitor.monitorApplication(yarnClient, bgId);
+		// background AM puts preempted containers into final diagnostics
+		logger.info("Background {} diagnostics: {}", bgId,
+				AppMonitor.getDiagnostics(yarnClient, yarnClient.getApplicationReport(bgId)));
+	}
+
+	/**
+	 * Polls app till it holds the number of containers, finishes or deadline passes
+	 *
+	 * @return max number of containers seen
+	 */
+	private static int waitForContainers(YarnClient yarnClient, ApplicationId appId, int containers, long deadline)
+			throws YarnException, IOException, InterruptedException
+	{
+		int maxUsed = 0;
+		while (System.currentTimeMillis() < deadline) {
+			ApplicationReport report = yarnClient.getApplicationReport(appId);
+			YarnApplicationState state = report.getYarnApplicationState();
+			if (state == YarnApplicationState.FINISHED || state == YarnApplicationState.FAILED
+					|| state == YarnApplicationState.KILLED) {
+				break;
+			}
+			maxUsed = Math.max(maxUsed, report.getApplicationResourceUsageReport().getNumUsedContainers());
+			if (maxUsed >= containers) {
+				break;
+			}
+			Thread.sleep(PROBE_INTERVAL_MS);
+		}
+		return maxUsed;
+	}
+}
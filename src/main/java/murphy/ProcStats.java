@@ -0,0 +1,175 @@
+package murphy;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Footprint of this JVM as NodeManager sees it (/proc) and as JVM itself accounts it (NMT)
+ */
+public class ProcStats {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProcStats.class);
+
+	private static final Pattern NMT_TOTAL = Pattern.compile("Total: reserved=(\\d+)KB, committed=(\\d+)KB");
+	private static final Pattern NMT_HEAP = Pattern.compile("Java Heap \\(reserved=(\\d+)KB, committed=(\\d+)KB\\)");
+
+	/**
+	 * @param key field of /proc/self/status, e.g. VmRSS
+	 * @return value in KB or -1 if not available
+	 */
+	public static long statusKB(String key) {
+		return fileKB("/proc/self/status", key);
+	}
+
+	/**
+	 * @param key field of /proc/self/smaps_rollup, e.g. AnonHugePages
+	 * @return value in KB or -1 if not available
+	 */
+	public static long smapsKB(String key) {
+		return fileKB("/proc/self/smaps_rollup", key);
+	}
+
+	private static long fileKB(String fileName, String key) {
+		try {
+			for (String line : Files.readAllLines(Paths.get(fileName), StandardCharsets.US_ASCII)) {
+				if (line.startsWith(key + ":")) {
+					return Long.parseLong(line.substring(key.length() + 1).replace("kB", "").trim());
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			logger.debug("No {} in {}", key, fileName, e);
+		}
+		return -1;
+	}
+
+	/**
+	 * Node wide counter of /proc/vmstat, e.g. thp_fault_alloc, -1 if not available
+	 */
+	public static long vmstat(String key) {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/vmstat"), StandardCharsets.US_ASCII)) {
+				if (line.startsWith(key + " ")) {
+					return Long.parseLong(line.substring(key.length() + 1).trim());
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			logger.debug("No {} in /proc/vmstat", key, e);
+		}
+		return -1;
+	}
+
+	/**
+	 * Selected value of transparent huge page setting, e.g. "madvise" of enabled or defrag, null if not available
+	 */
+	public static String thpSetting(String name) {
+		try {
+			String line = new String(Files.readAllBytes(Paths.get("/sys/kernel/mm/transparent_hugepage", name)),
+					StandardCharsets.US_ASCII);
+			int start = line.indexOf('[');
+			int end = line.indexOf(']');
+			return start >= 0 && end > start ? line.substring(start + 1, end) : line.trim();
+		} catch (IOException e) {
+			logger.debug("No THP setting {}", name, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Output of "jcmd VM.native_memory summary" for this JVM, null if NMT is off
+	 */
+	public static String nmtSummary() {
+		try {
+			Object out = ManagementFactory.getPlatformMBeanServer().invoke(
+					new ObjectName("com.sun.management:type=DiagnosticCommand"), "vmNativeMemory",
+					new Object[] { new String[] { "summary" } }, new String[] { String[].class.getName() });
+			String summary = String.valueOf(out);
+			return NMT_TOTAL.matcher(summary).find() ? summary : null;
+		} catch (Exception e) {
+			logger.debug("NMT is not available", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Cgroup of this process from /proc/self/cgroup: path in v1 hierarchy of the controller or in v2 unified one
+	 */
+	public static String cgroupPath(String controller) {
+		try {
+			String unified = null;
+			for (String line : Files.readAllLines(Paths.get("/proc/self/cgroup"), StandardCharsets.US_ASCII)) {
+				String[] parts = line.split(":", 3);
+				if (parts.length < 3) {
+					continue;
+				}
+				if (parts[0].equals("0") && parts[1].isEmpty()) {
+					unified = parts[2];
+				} else if (("," + parts[1] + ",").contains("," + controller + ",")) {
+					return parts[2];
+				}
+			}
+			return unified;
+		} catch (IOException e) {
+			logger.info("No cgroup info", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Adds CFS throttling counters of the CPU cgroup (cpu.stat) into report, nothing if there is no such cgroup
+	 */
+	public static void addCpuThrottling(WorkerReport report) {
+		String path = cgroupPath("cpu");
+		if (path == null) {
+			return;
+		}
+		// v2 reports microseconds, v1 nanoseconds
+		for (String dir : new String[] { "/sys/fs/cgroup" + path, "/sys/fs/cgroup/cpu,cpuacct" + path,
+				"/sys/fs/cgroup/cpu" + path }) {
+			try {
+				for (String line : Files.readAllLines(Paths.get(dir, "cpu.stat"), StandardCharsets.US_ASCII)) {
+					String[] kv = line.split(" ");
+					if (kv[0].equals("nr_throttled")) {
+						report.set("cgroup.cpu.nr_throttled", Long.parseLong(kv[1]));
+					} else if (kv[0].equals("throttled_usec")) {
+						report.set("cgroup.cpu.throttled.ms", Long.parseLong(kv[1]) / 1000);
+					} else if (kv[0].equals("throttled_time")) {
+						report.set("cgroup.cpu.throttled.ms", Long.parseLong(kv[1]) / 1000000);
+					}
+				}
+				return;
+			} catch (IOException | RuntimeException e) {
+				logger.debug("No cpu.stat in {}", dir, e);
+			}
+		}
+	}
+
+	/**
+	 * Adds VmRSS/VmHWM and, when NMT is on, committed total and heap into report
+	 */
+	public static void addFootprint(WorkerReport report) {
+		report.set("rss.kb", statusKB("VmRSS"));
+		report.set("hwm.kb", statusKB("VmHWM"));
+		String nmt = nmtSummary();
+		if (nmt != null) {
+			Matcher total = NMT_TOTAL.matcher(nmt);
+			Matcher heap = NMT_HEAP.matcher(nmt);
+			if (total.find() && heap.find()) {
+				long committed = Long.parseLong(total.group(2));
+				long heapCommitted = Long.parseLong(heap.group(2));
+				report.set("nmt.committed.kb", committed);
+				report.set("nmt.heap.kb", heapCommitted);
+				report.set("nmt.native.kb", committed - heapCommitted);
+			}
+		}
+	}
+}
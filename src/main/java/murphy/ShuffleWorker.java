@@ -0,0 +1,331 @@
+package murphy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import murphy.appmaster.LatencyStats;
+
+/**
+ * Shuffle-like all-to-all traffic: the worker listens on an ephemeral port, registers the address with AM,
+ * gets addresses of other workers of the same group launch back and streams blocks to every one of them
+ * at target rate until hold seconds are over. Receivers echo the send timestamp of every block,
+ * so the sender sees round trip latency of each link under load. One selector thread does all I/O.
+ */
+public class ShuffleWorker {
+
+	private static final Logger logger = LoggerFactory.getLogger(ShuffleWorker.class);
+
+	/** Environment variable with AM url brokering peer addresses, set by AM for worker containers */
+	public static final String PEERS_URL_ENV = "MURPHY_PEERS_URL";
+
+	/** Block starts with send time and sequence number */
+	private static final int HEADER = 16;
+	private static final int ACK = 8;
+	private static final int ACK_BUFFER = 64 * ACK;
+
+	private final int blockSize;
+	private final long bytesPerSec;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+
+	private final List<Link> links = new ArrayList<>();
+	private long receivedBytes = 0;
+	private long startNs;
+
+
+	/**
+	 * @param bytesPerSec target rate of every link, 0 for unlimited
+	 */
+	public ShuffleWorker(int blockSize, long bytesPerSec) throws IOException {
+		this.blockSize = Math.max(HEADER, blockSize);
+		this.bytesPerSec = bytesPerSec;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(0));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	public static void main(String[] args) throws Exception {
+		logger.info("ShuffleWorker started with parameters: " + String.join(" ", args));
+		ShuffleWorker worker = new ShuffleWorker(Integer.getInteger("murphy.shuffle.block", 65536),
+				(long) (Double.parseDouble(System.getProperty("murphy.shuffle.rate", "10")) * 1048576));
+		String address = WorkerReport.node() + ":" + worker.getPort();
+		List<InetSocketAddress> peers = discover(System.getProperty("murphy.shuffle.key", "default"), address,
+				Integer.getInteger("murphy.shuffle.peers", 1), Integer.getInteger("murphy.shuffle.wait", 300));
+		WorkerReport report = worker.run(peers, Integer.getInteger("murphy.hold", 120));
+		report.send();
+		logger.info("ShuffleWorker finished");
+	}
+
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * Registers own address with AM and polls till all expected workers of the launch are registered
+	 * or wait time is over. Without AM streams to itself over loopback.
+	 *
+	 * @return addresses of other workers
+	 */
+	static List<InetSocketAddress> discover(String key, String address, int expected, int waitSec)
+			throws IOException, InterruptedException {
+		List<InetSocketAddress> peers = new ArrayList<>();
+		String url = System.getenv(PEERS_URL_ENV);
+		if (url == null) {
+			peers.add(parse(address));
+			return peers;
+		}
+		String request = new WorkerReport().set("key", key).set("address", address).format();
+		long deadline = System.currentTimeMillis() + waitSec * 1000L;
+		List<String> registered;
+		while (true) {
+			registered = post(url, request);
+			if (registered.size() >= expected || System.currentTimeMillis() > deadline) {
+				break;
+			}
+			// short poll: peers start streaming almost together, and early starters do not see long round trips
+			Thread.sleep(200);
+		}
+		if (registered.size() < expected) {
+			logger.warn("Only {} of {} workers registered in {} s", registered.size(), expected, waitSec);
+		}
+		for (String peer : registered) {
+			if (!peer.equals(address)) {
+				peers.add(parse(peer));
+			}
+		}
+		logger.info("Peers of {}: {}", address, peers);
+		return peers;
+	}
+
+	private static List<String> post(String url, String body) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		conn.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+		try (OutputStream out = conn.getOutputStream()) {
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+		}
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		try (InputStream in = conn.getInputStream()) {
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				response.write(buf, 0, n);
+			}
+		}
+		conn.disconnect();
+		List<String> lines = new ArrayList<>();
+		for (String line : new String(response.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+			if (!line.trim().isEmpty()) {
+				lines.add(line.trim());
+			}
+		}
+		return lines;
+	}
+
+	private static InetSocketAddress parse(String address) {
+		int colon = address.lastIndexOf(':');
+		return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+	}
+
+	public WorkerReport run(List<InetSocketAddress> peers, int holdSec) throws IOException {
+		for (InetSocketAddress peer : peers) {
+			SocketChannel ch = SocketChannel.open();
+			ch.configureBlocking(false);
+			Link link = new Link(peer, ch);
+			links.add(link);
+			ch.connect(peer);
+			ch.register(selector, SelectionKey.OP_CONNECT, link);
+		}
+		logger.info("Streaming {} byte blocks at {} bytes/s to {} peers for {} s", blockSize, bytesPerSec,
+				peers.size(), holdSec);
+		startNs = System.nanoTime();
+		long deadline = startNs + holdSec * 1000000000L;
+		long now;
+		while ((now = System.nanoTime()) < deadline) {
+			for (Link link : links) {
+				link.updateInterest(now);
+			}
+			selector.select(1);
+			for (SelectionKey key : selector.selectedKeys()) {
+				try {
+					if (key.isAcceptable()) {
+						accept();
+					} else if (key.attachment() instanceof Link) {
+						((Link) key.attachment()).handle(key);
+					} else {
+						((Inbound) key.attachment()).handle(key);
+					}
+				} catch (IOException e) {
+					// peer finished earlier or went away
+					logger.info("Closing {}: {}", key.attachment(), e.toString());
+					key.cancel();
+					key.channel().close();
+				}
+			}
+			selector.selectedKeys().clear();
+		}
+		long elapsedNs = System.nanoTime() - startNs;
+		for (SelectionKey key : selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+		return report(elapsedNs);
+	}
+
+	private WorkerReport report(long elapsedNs) {
+		WorkerReport report = new WorkerReport().set("node", WorkerReport.node()).set("shuffle.peers", links.size());
+		LatencyStats all = new LatencyStats("us");
+		long sent = 0;
+		for (Link link : links) {
+			String prefix = "link." + link.peer.getHostString() + "_" + link.peer.getPort() + ".";
+			report.set(prefix + "mbps", mbps(link.sentBytes, elapsedNs))
+					.set(prefix + "rtt.p50.us", link.rtt.percentile(0.5))
+					.set(prefix + "rtt.p99.us", link.rtt.percentile(0.99));
+			logger.info("Link to {}: {} MB sent, round trip {}", link.peer, link.sentBytes >> 20, link.rtt);
+			sent += link.sentBytes;
+			all.addAll(link.rtt);
+		}
+		report.set("shuffle.out.mbps", mbps(sent, elapsedNs))
+				.set("shuffle.in.mbps", mbps(receivedBytes, elapsedNs))
+				.set("shuffle.rtt.p50.us", all.percentile(0.5))
+				.set("shuffle.rtt.p99.us", all.percentile(0.99));
+		return report;
+	}
+
+	private static double mbps(long bytes, long ns) {
+		return ns == 0 ? 0 : bytes / 1048576.0 * 1e9 / ns;
+	}
+
+	private void accept() throws IOException {
+		SocketChannel ch = server.accept();
+		if (ch != null) {
+			ch.configureBlocking(false);
+			ch.register(selector, SelectionKey.OP_READ, new Inbound(ch));
+		}
+	}
+
+	/** Outgoing stream to a peer: sends blocks, reads back echoed timestamps */
+	private class Link {
+		final InetSocketAddress peer;
+		final SocketChannel channel;
+		final ByteBuffer out;
+		final ByteBuffer acks = ByteBuffer.allocate(ACK_BUFFER);
+		final LatencyStats rtt = new LatencyStats("us");
+		long sentBytes = 0;
+		long sequence = 0;
+		boolean connected = false;
+		long connectedAt;
+
+		Link(InetSocketAddress peer, SocketChannel channel) {
+			this.peer = peer;
+			this.channel = channel;
+			this.out = ByteBuffer.allocateDirect(blockSize);
+			out.limit(0);
+		}
+
+		/**
+		 * Asks for write readiness only when rate allows next block, otherwise selector would spin
+		 */
+		void updateInterest(long now) {
+			SelectionKey key = channel.keyFor(selector);
+			if (!connected || key == null || !key.isValid()) {
+				return;
+			}
+			boolean send = out.hasRemaining() || bytesPerSec == 0
+					|| sentBytes <= bytesPerSec * ((now - connectedAt) / 1e9);
+			key.interestOps(SelectionKey.OP_READ | (send ? SelectionKey.OP_WRITE : 0));
+		}
+
+		void handle(SelectionKey key) throws IOException {
+			if (key.isConnectable()) {
+				channel.finishConnect();
+				connected = true;
+				// rate counts from connect: a late peer does not get a burst
+				connectedAt = System.nanoTime();
+				key.interestOps(SelectionKey.OP_READ);
+				return;
+			}
+			if (key.isReadable()) {
+				if (channel.read(acks) < 0) {
+					throw new IOException("closed by peer");
+				}
+				acks.flip();
+				long now = System.nanoTime();
+				while (acks.remaining() >= ACK) {
+					rtt.add((now - acks.getLong()) / 1000);
+				}
+				acks.compact();
+			}
+			if (key.isValid() && key.isWritable()) {
+				if (!out.hasRemaining()) {
+					out.clear();
+					out.putLong(0, System.nanoTime());
+					out.putLong(8, sequence++);
+				}
+				sentBytes += channel.write(out);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "link to " + peer;
+		}
+	}
+
+	/** Incoming stream from a peer: consumes blocks, echoes their timestamps */
+	private class Inbound {
+		final SocketChannel channel;
+		final ByteBuffer in = ByteBuffer.allocateDirect(blockSize);
+		final ByteBuffer acks = ByteBuffer.allocate(ACK_BUFFER);
+
+		Inbound(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		void handle(SelectionKey key) throws IOException {
+			if (key.isReadable()) {
+				int n = channel.read(in);
+				if (n < 0) {
+					throw new IOException("closed by peer");
+				}
+				receivedBytes += n;
+				if (!in.hasRemaining()) {
+					acks.putLong(in.getLong(0));
+					in.clear();
+				}
+			}
+			if (acks.position() > 0) {
+				acks.flip();
+				channel.write(acks);
+				acks.compact();
+			}
+			// stop reading while echoes can not be sent, sender is throttled by TCP then
+			key.interestOps((acks.remaining() >= ACK ? SelectionKey.OP_READ : 0)
+					| (acks.position() > 0 ? SelectionKey.OP_WRITE : 0));
+		}
+
+		@Override
+		public String toString() {
+			return "inbound " + channel;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package murphy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measurements of a worker, sent to AM web UI as properties text.
+ * Outside of YARN (no AM url in environment) the report is only logged.
+ */
+public class WorkerReport {
+
+	private static final Logger logger = LoggerFactory.getLogger(WorkerReport.class);
+
+	/** Environment variable with AM url accepting reports, set by AM for worker containers */
+	public static final String AM_URL_ENV = "MURPHY_AM_URL";
+	public static final String CONTAINER_KEY = "container";
+
+	private final Map<String, String> values = new LinkedHashMap<>();
+
+	public WorkerReport() {
+		String containerId = System.getenv("CONTAINER_ID");
+		if (containerId != null) {
+			set(CONTAINER_KEY, containerId);
+		}
+	}
+
+	/**
+	 * Host of NodeManager running the worker
+	 */
+	public static String node() {
+		String host = System.getenv("NM_HOST");
+		if (host != null) {
+			return host;
+		}
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			return "unknown";
+		}
+	}
+
+	public WorkerReport set(String key, Object value) {
+		values.put(key, String.valueOf(value));
+		return this;
+	}
+
+	public String format() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> e : values.entrySet()) {
+			sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Posts the report to AM; failure to deliver is logged but does not fail the worker
+	 */
+	public void send() {
+		String text = format();
+		logger.info("Worker report:\n{}", text);
+		String amUrl = System.getenv(AM_URL_ENV);
+		if (amUrl == null) {
+			return;
+		}
+		try {
+			HttpURLConnection conn = (HttpURLConnection) new URL(amUrl).openConnection();
+			conn.setRequestMethod("POST");
+			conn.setDoOutput(true);
+			conn.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+			try (OutputStream out = conn.getOutputStream()) {
+				out.write(text.getBytes(StandardCharsets.UTF_8));
+			}
+			if (conn.getResponseCode() != 200) {
+				logger.warn("AM {} rejected report: {}", amUrl, conn.getResponseCode());
+			}
+			conn.disconnect();
+		} catch (IOException e) {
+			logger.warn("Failed to send report to AM {}", amUrl, e);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package murphy.appmaster;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.yarn.api.ApplicationConstants;
 import org.apache.hadoop.yarn.api.ApplicationConstants.Environment;
 import org.apache.hadoop.yarn.api.protocolrecords.RegisterApplicationMasterResponse;
@@ -14,7 +15,10 @@ import org.apache.hadoop.yarn.exceptions.YarnException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
@@ -22,6 +26,8 @@ import java.util.*;
 
 import murphy.AppSubmitter.SubmitterParams;
 import murphy.ContainerLauncher;
+import murphy.ShuffleWorker;
+import murphy.WorkerReport;
 
 
 public class AppMaster {
@@ -36,9 +42,13 @@ public class AppMaster {
 	public static final int PRIORITY = 0;
 
 	public static final String CONTAINER_JAR = "TheMurphy.jar";
+	public static final String SCENARIO_FILE = "scenario.properties";
 
 	private static final int AM_RM_HEARTBEAT_INTERVAL_MS = 1000;
+	private static int heartbeatIntervalMs = AM_RM_HEARTBEAT_INTERVAL_MS;
 	private static final int COMPLETION_CHECK_INTERVAL_MS = 5000;
+	/** YARN priorities per group priority, one for each container size */
+	private static final int SIZES_PER_PRIORITY = 100;
 
 	private final ContainerLauncher launcher;
 	private final AppState appState;
@@ -46,9 +56,13 @@ public class AppMaster {
 	private AMRMClientAsync<AMRMClient.ContainerRequest> rmClient;
 	private NMClientAsync nmClient;
 	private RMCallbackHandler rmCallbackHandler;
+	private WebUI webUI;
+	private final long startedAt = System.currentTimeMillis();
+	/** Map[group priority: container MB of every YARN priority given out] */
+	private final Map<Integer, List<Integer>> prioritySizes = new HashMap<>();
 
+	private static Scenario scenario;
 	private static int numContainers = 0;
-	private static long containerMemSize = 1073741824;
 
 
 	public static List<String> getAMCommand(ApplicationId appId, SubmitterParams ap) {
@@ -60,14 +74,18 @@ public class AppMaster {
 		}
 
 		// Setting Command
-		List<String> command = Arrays.asList(
+		List<String> command = new ArrayList<>(Arrays.asList(
 			Environment.JAVA_HOME.$() + "/bin/java", "-Xmx" + (MEMORY_MB - MEMORY_RESERVED_MB) + "m",
 			AppMaster.class.getName(),
-			appId + "",
-			"\"" + ap.numContainers + "\"",
-			"\"" + ap.containerMemSize + "\"",
-			"1> " + logDir + "/AppMaster.stdout",
-			"2> " + logDir + "/AppMaster.stderr");
+			appId + ""));
+		if (ap.scenarioFile != null) {
+			command.add(SCENARIO_FILE);
+		} else {
+			command.add("\"" + ap.numContainers + "\"");
+			command.add("\"" + ap.containerMemSize + "\"");
+		}
+		command.add("1> " + logDir + "/AppMaster.stdout");
+		command.add("2> " + logDir + "/AppMaster.stderr");
 		return command;
 	}
 
@@ -76,8 +94,13 @@ public class AppMaster {
 
 		try {
 			String appId = args[0];
-			numContainers = Integer.valueOf(args[1]);
-			containerMemSize = Long.valueOf(args[2]);
+			if (args.length == 2) {
+				scenario = Scenario.load(args[1]);
+			} else {
+				scenario = Scenario.uniform(Integer.valueOf(args[1]), Long.valueOf(args[2]));
+			}
+			numContainers = scenario.getTotalTasks();
+			heartbeatIntervalMs = scenario.getInt("heartbeat.ms", AM_RM_HEARTBEAT_INTERVAL_MS);
 
 			Configuration conf = new YarnConfiguration();
 			AppMaster appMaster = new AppMaster(conf, appId);
@@ -96,29 +119,35 @@ public class AppMaster {
 		launcher = new ContainerLauncher(conf, appId);
 		launcher.collectTokensForContainers();
 
-		appState = new AppState();
+		appState = new AppState(numContainers, new MemoryCalibration(scenario));
 		rmCallbackHandler = new RMCallbackHandler(this, appState);
 	}
 
 	private void startYarnClients() {
 		Configuration conf = launcher.getConf();
 		// Resource Manager Client setup
-		rmClient = AMRMClientAsync.createAMRMClientAsync(AM_RM_HEARTBEAT_INTERVAL_MS, rmCallbackHandler);
+		rmClient = AMRMClientAsync.createAMRMClientAsync(new TimedAMRMClient(appState.heartbeats),
+				heartbeatIntervalMs, rmCallbackHandler);
 		rmClient.init(conf);
 		rmClient.start();
 
 		// Node Manager Client setup
-		nmClient = new NMClientAsyncImpl(new NMCallbackHandler());
+		nmClient = new NMClientAsyncImpl(new NMCallbackHandler(appState));
 		nmClient.init(conf);
 		nmClient.start();
 	}
 
 	private void registerAppMaster() throws YarnException, IOException {
 		String thisHost = InetAddress.getLocalHost().getHostName();
-		InetSocketAddress listen = new InetSocketAddress(thisHost, 4444);
-		new WebUI(appState).start(listen);
+		// ephemeral port: several AMs (e.g. background and burst of preemption probe) may share a node
+		webUI = new WebUI(appState);
+		InetSocketAddress listen = webUI.start(new InetSocketAddress(thisHost, 0));
 
 		String appTrackingUrl = "http://" + listen.getHostString() + ":" + listen.getPort() + "/murphy/index";
+		launcher.setEnv(WorkerReport.AM_URL_ENV,
+				"http://" + listen.getHostString() + ":" + listen.getPort() + WebUI.REPORT_PATH);
+		launcher.setEnv(ShuffleWorker.PEERS_URL_ENV,
+				"http://" + listen.getHostString() + ":" + listen.getPort() + WebUI.PEERS_PATH);
 		RegisterApplicationMasterResponse regInfo = rmClient.registerApplicationMaster(
 				listen.getHostString(), listen.getPort(), appTrackingUrl);
 		logger.info("Registered AM on {}, trackingURL: {}", thisHost, appTrackingUrl);
@@ -126,11 +155,26 @@ public class AppMaster {
 		logger.info("ContainersFromPreviousAttempts: {}", regInfo.getContainersFromPreviousAttempts());
 	}
 
+	/**
+	 * Executes the scenario schedule: requests containers of every group when its phase offset comes
+	 */
 	private void runTasks() throws IOException, InterruptedException {
-		logger.info("Requesting {} containers", numContainers);
-		for (int i = 0; i < numContainers; i++) {
-			EatMemoryTask task = new EatMemoryTask(containerMemSize);
-			requestContainer(task);
+		logger.info("Requesting {} containers in {} phases", numContainers, scenario.getPhases().size());
+		long start = System.currentTimeMillis();
+		for (Scenario.Launch launch : scenario.getSchedule()) {
+			long delay = start + launch.offsetMs - System.currentTimeMillis();
+			if (delay > 0) {
+				Thread.sleep(delay);
+			}
+			logger.info("Phase {} #{}: requesting {}", launch.phase.name, launch.iteration, launch.group);
+			int batch = launch.group.batch > 0 ? launch.group.batch : launch.group.containers;
+			for (int i = 0; i < launch.group.containers; i++) {
+				if (i > 0 && i % batch == 0) {
+					// next batch goes with the next heartbeat
+					Thread.sleep(heartbeatIntervalMs);
+				}
+				requestContainer(WorkerTask.create(launch, appState.calibration));
+			}
 		}
 	}
 
@@ -138,20 +182,64 @@ public class AppMaster {
 	 * Send request for container to Resource Manager Add task to
 	 * RMCallbackHandler's queue
 	 */
-	public void requestContainer(EatMemoryTask task) {
-		// record the request before asking for container
-		rmCallbackHandler.registerPlanItem(task);
+	public void requestContainer(WorkerTask task) {
+		appState.onTaskRequested(task);
 
 		String[] nodes = null;
-		Priority priority = task.getPriority();
+		Priority priority = requestPriority(task);
 		Resource capability = task.getCapability();
 		AMRMClient.ContainerRequest containerRequest = new AMRMClient.ContainerRequest(capability, nodes, null, priority);
-		rmClient.addContainerRequest(containerRequest);
+		task.setContainerRequest(containerRequest);
+		// allocation callbacks see the task with its request, and only once it is asked for
+		synchronized (rmCallbackHandler) {
+			rmCallbackHandler.registerPlanItem(task);
+			rmClient.addContainerRequest(containerRequest);
+		}
 
 		logger.info("Container was requested for {}", task);
 	}
 
-	public void launchEatMemoryTask(Container container, EatMemoryTask task) {
+	/**
+	 * YARN priority of the task ask. Schedulers of YARN 2.x keep one ask per priority, asks of another
+	 * container size at the same priority would replace each other. So every size gets a priority of its own
+	 * among SIZES_PER_PRIORITY next to the group priority, and the order of group priorities is kept
+	 */
+	private synchronized Priority requestPriority(WorkerTask task) {
+		List<Integer> sizes = prioritySizes.computeIfAbsent(task.getGroup().priority, p -> new ArrayList<>());
+		int containerMB = task.getCapability().getMemory();
+		int index = sizes.indexOf(containerMB);
+		if (index < 0 && sizes.size() < SIZES_PER_PRIORITY) {
+			sizes.add(containerMB);
+			index = sizes.size() - 1;
+		} else if (index < 0) {
+			logger.warn("Too many container sizes at priority {}, {} MB asks may replace each other",
+					task.getGroup().priority, containerMB);
+			index = SIZES_PER_PRIORITY - 1;
+		}
+		return Priority.newInstance(task.getGroup().priority * SIZES_PER_PRIORITY + index);
+	}
+
+	/**
+	 * Outstanding requests of the container priority fitting into its memory, biggest first.
+	 * Vcores are left out, see {@link WorkerTask#fits}
+	 */
+	public List<? extends Collection<AMRMClient.ContainerRequest>> getMatchingRequests(Container container) {
+		Resource capability = Resource.newInstance(container.getResource().getMemory(), Integer.MAX_VALUE);
+		return rmClient.getMatchingRequests(container.getPriority(), ResourceRequest.ANY, capability);
+	}
+
+	/**
+	 * Sends the ask of a still pending task again. AMRMClient sends the total count of asks
+	 * of the same size, which restores the count RM has decremented for a released container
+	 */
+	public void renewRequest(WorkerTask task) {
+		rmClient.removeContainerRequest(task.getContainerRequest());
+		rmClient.addContainerRequest(task.getContainerRequest());
+	}
+
+	public void launchTask(Container container, WorkerTask task) {
+		// satisfied request must be removed explicitly, otherwise AMRMClient asks for it again
+		rmClient.removeContainerRequest(task.getContainerRequest());
 		logger.info("Container allocated for task, node: {}, id: {} ({})",
 				container.getNodeId().getHost(), container.getId(), container.getNodeHttpAddress());
 
@@ -162,6 +250,18 @@ public class AppMaster {
 		nmClient.startContainerAsync(container, containerContext);
 	}
 
+	public void releaseTaskContainer(Container container, WorkerTask task) {
+		rmClient.removeContainerRequest(task.getContainerRequest());
+		rmClient.releaseAssignedContainer(container.getId());
+		appState.onContainerReleased(container);
+	}
+
+	public void releaseContainer(Container container) {
+		logger.info("Releasing unexpected container {} {} at {}",
+				container.getId(), container.getResource(), container.getNodeId().getHost());
+		rmClient.releaseAssignedContainer(container.getId());
+	}
+
 	private void waitForTasks() {
 		logger.info("Waiting for containers completion...");
 
@@ -175,17 +275,62 @@ public class AppMaster {
 		}
 	}
 
+	/**
+	 * Writes run report into AM container log dir and into the staging dir, where submitter picks it up
+	 */
+	private void writeRunReport() {
+		RunReport report = RunReport.build(scenario, appState, System.currentTimeMillis() - startedAt,
+				heartbeatIntervalMs);
+		String logDirs = System.getenv(Environment.LOG_DIRS.name());
+		if (logDirs != null) {
+			File local = new File(logDirs.split(",")[0], RunReport.FILE_NAME);
+			try (OutputStream out = new FileOutputStream(local)) {
+				report.write(out);
+			} catch (IOException e) {
+				logger.warn("Failed to write run report into {}", local, e);
+			}
+		}
+		Path staging = launcher.getStagingPath(RunReport.FILE_NAME);
+		try (OutputStream out = launcher.getFileSystem().create(staging, true)) {
+			report.write(out);
+			logger.info("Run report written into {}", staging);
+		} catch (IOException e) {
+			logger.warn("Failed to write run report into {}", staging, e);
+		}
+	}
+
 	private void stopAppMaster() throws IOException, YarnException {
 		logger.info("AppMaster stop initiated:");
+		logger.info("Allocation rate: {} containers/s, latency: {}", String.format("%.1f", appState.getAllocationRate()),
+				appState.allocations);
+		logger.info("AM-RM heartbeats every {} ms: {}", heartbeatIntervalMs, appState.heartbeats);
+		for (String key : new String[] { "disk.write.mbps", "disk.write.iops", "disk.read.mbps", "disk.read.iops",
+				"shuffle.out.mbps", "shuffle.in.mbps" }) {
+			Map<String, Double> perNode = appState.sumByNode(key);
+			if (!perNode.isEmpty()) {
+				logger.info("Per node {}: {}", key, perNode);
+			}
+		}
 
 		int failedTasksCount = appState.failedTasksCount;
 		String appMessage = (failedTasksCount == 0) ? "OK" : String.format("Task failures: %d.", failedTasksCount);
+		if (!appState.badNodes.isEmpty()) {
+			appMessage += " Memory corruption on: " + appState.badNodes;
+		}
+		if (!appState.preemptedContainers.isEmpty()) {
+			appMessage += String.format(" Preempted %d: %s", appState.preemptedContainers.size(),
+					appState.preemptedContainers);
+		}
+		writeRunReport();
 		rmClient.unregisterApplicationMaster(FinalApplicationStatus.SUCCEEDED, appMessage, null);
 		rmClient.stop();
 		logger.info("RMClient stopped");
 
 		nmClient.stop();
 		logger.info("NMClient stopped");
+
+		// its dispatcher thread is not a daemon and would keep AM container alive
+		webUI.stop();
 	}
 
 }
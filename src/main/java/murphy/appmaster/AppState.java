@@ -1,12 +1,24 @@
 package murphy.appmaster;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerExitStatus;
 import org.apache.hadoop.yarn.api.records.ContainerStatus;
+import org.apache.hadoop.yarn.util.ConverterUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import murphy.EatMemoryWorker;
+import murphy.WorkerReport;
+
 public class AppState {
 
     private static final Logger logger = LoggerFactory.getLogger(AppState.class);
@@ -15,29 +27,251 @@ public class AppState {
     public volatile int completedTasksCount = 0;
     public volatile int failedTasksCount = 0;
 
+    private final int totalTasksCount;
+
+    public final MemoryCalibration calibration;
+
     /** Map[containerIds: tasks] */
-    public final Map<Long, EatMemoryTask> container2task = new HashMap<>();
+    public final Map<Long, WorkerTask> container2task = new HashMap<>();
+    /** Map[containerIds: node hosts] */
+    public final Map<Long, String> container2node = new HashMap<>();
+    /** Map[containerIds: last report of the worker] */
+    public final Map<Long, Properties> container2report = new HashMap<>();
+    /** Hosts where workers found memory content corrupted */
+    public final Set<String> badNodes = new TreeSet<>();
+    /** Containers taken away by scheduler (exit -102), as "containerId@host group" */
+    public final List<String> preemptedContainers = new ArrayList<>();
+
+    /** Map[shuffle launch key: Map[container: listen address]] */
+    private final Map<String, Map<String, String>> peers = new HashMap<>();
+
+    /** AM-RM heartbeat round trips */
+    public final LatencyStats heartbeats = new LatencyStats("us");
+    /** Time from container request till allocation */
+    public final LatencyStats allocations = new LatencyStats("ms");
+    private long firstRequestAt = -1;
+    private long lastAllocationAt = -1;
+    /** Containers held by tasks now and at most, surplus containers released at once are not counted */
+    private int heldContainers = 0;
+    private int peakContainers = 0;
+    private long peakAt = -1;
+
+    /** Allocation progress of every scheduled group launch */
+    private final Map<Scenario.Launch, LaunchStats> launches = new HashMap<>();
+
+    public static class LaunchStats {
+        public final long requestedAt = System.currentTimeMillis();
+        public int allocated = 0;
+        /** Time from first request till the last container of the launch, -1 while allocating */
+        public long allocatedMs = -1;
+    }
+
+    /** Placement and life cycle of a container, kept for run report after it finishes */
+    public static class ContainerRecord {
+        public final String id;
+        public final String node;
+        public final WorkerTask task;
+        /** Memory limit of the container, NM kills it beyond */
+        public final int memoryMB;
+        public final long allocatedAt = System.currentTimeMillis();
+        public long startedAt = -1;
+        public long finishedAt = -1;
+        /** Exit status, null while running or if released without launch */
+        public Integer exitStatus;
+
+        ContainerRecord(String id, String node, WorkerTask task, int memoryMB) {
+            this.id = id;
+            this.node = node;
+            this.task = task;
+            this.memoryMB = memoryMB;
+        }
+    }
+
+    /** Map[containerIds: records] of all containers given to tasks */
+    public final Map<Long, ContainerRecord> containers = new TreeMap<>();
 
-    // TODO: wire NMCallbackHandler for containers tracking
+    public AppState(int totalTasksCount, MemoryCalibration calibration) {
+        this.totalTasksCount = totalTasksCount;
+        this.calibration = calibration;
+    }
+
+    public synchronized void onTaskRequested(WorkerTask task) {
+        if (firstRequestAt < 0) {
+            firstRequestAt = task.getRequestedAt();
+        }
+        launches.computeIfAbsent(task.getLaunch(), l -> new LaunchStats());
+    }
 
-    public void recordContainerState(long containerId, EatMemoryTask task, String state) {
-        // put task and container id into running tasks map
+    public synchronized void onContainerAllocated(Container container, WorkerTask task) {
+        long containerId = container.getId().getContainerId();
         container2task.put(containerId, task);
+        container2node.put(containerId, container.getNodeId().getHost());
+        containers.put(containerId, new ContainerRecord(container.getId().toString(),
+            container.getNodeId().getHost(), task, container.getResource().getMemory()));
+
+        lastAllocationAt = System.currentTimeMillis();
+        allocations.add(lastAllocationAt - task.getRequestedAt());
+        if (++heldContainers > peakContainers) {
+            peakContainers = heldContainers;
+            peakAt = lastAllocationAt;
+        }
+
+        Scenario.Launch launch = task.getLaunch();
+        LaunchStats stats = launches.get(launch);
+        stats.allocated++;
+        if (stats.allocated == launch.group.containers) {
+            stats.allocatedMs = System.currentTimeMillis() - stats.requestedAt;
+            logger.info("Phase {} #{} group {} fully allocated: {} containers in {} ms", launch.phase.name,
+                launch.iteration, launch.group.name, stats.allocated, stats.allocatedMs);
+        }
+    }
+
+    public synchronized void onContainerStarted(long containerId) {
+        ContainerRecord record = containers.get(containerId);
+        if (record != null) {
+            record.startedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized Map<Scenario.Launch, LaunchStats> getLaunches() {
+        return new HashMap<>(launches);
     }
 
-    public void onContainerFinished(ContainerStatus s) {
+    /**
+     * Container of allocate only task was given back to RM, the task is complete
+     */
+    public synchronized void onContainerReleased(Container container) {
+        long containerId = container.getId().getContainerId();
+        container2task.remove(containerId);
+        container2node.remove(containerId);
+        heldContainers--;
+        completedTasksCount++;
+    }
+
+    public synchronized int getPeakContainers() {
+        return peakContainers;
+    }
+
+    /**
+     * Time from the first request till tasks held most containers, -1 before any allocation
+     */
+    public synchronized long getPeakMs() {
+        return peakAt < 0 ? -1 : peakAt - firstRequestAt;
+    }
+
+    /**
+     * Allocations per second from the first request till the last allocation
+     */
+    public synchronized double getAllocationRate() {
+        long ms = lastAllocationAt - firstRequestAt;
+        return ms <= 0 ? -1 : allocations.getCount() * 1000.0 / ms;
+    }
+
+    public synchronized void onContainerFinished(ContainerStatus s) {
         logger.info("Container {} completed with exit status  {} ", s.getContainerId(), s.getExitStatus());
-        EatMemoryTask task = container2task.remove(s.getContainerId());
+        long containerId = s.getContainerId().getContainerId();
+        WorkerTask task = container2task.remove(containerId);
+        String node = container2node.remove(containerId);
+        if (task == null) {
+            // released surplus container, was never part of the plan
+            logger.debug("Container {} was not assigned to any task", s.getContainerId());
+            return;
+        }
+        heldContainers--;
         completedTasksCount++;
-        if (s.getExitStatus() != 0) {
+        ContainerRecord record = containers.get(containerId);
+        record.finishedAt = System.currentTimeMillis();
+        record.exitStatus = s.getExitStatus();
+        if (s.getExitStatus() == ContainerExitStatus.KILLED_EXCEEDED_PMEM && task instanceof EatMemoryTask) {
+            calibration.onKilled(task.getGroup().memSize, record.memoryMB, lastRssKB(containerId));
+        }
+        if (s.getExitStatus() == EatMemoryWorker.EXIT_CORRUPTED) {
+            badNodes.add(node);
+            logger.error("Container {} found memory corruption, flagging host {}", s.getContainerId(), node);
+        }
+        if (s.getExitStatus() == ContainerExitStatus.PREEMPTED) {
+            // scheduler decision, counted apart from failures of the task
+            String group = task.getGroup().name;
+            preemptedContainers.add(s.getContainerId() + "@" + node + " " + group);
+            logger.warn("Container {} of group {} at {} was preempted", s.getContainerId(), group, node);
+        } else if (s.getExitStatus() != 0) {
             failedTasksCount++;
             logger.error("Container {} exited {}, diag: {}, state: {}", s.getContainerId(), s.getExitStatus(),
                 s.getDiagnostics(), s.getState());
         }
     }
 
+    /**
+     * Highest RSS a worker reported: at target footprint or sampled till exit, -1 without reports
+     */
+    private long lastRssKB(long containerId) {
+        Properties report = container2report.get(containerId);
+        long rss = -1;
+        if (report != null) {
+            for (String key : new String[] { "rss.kb", "hwm.kb", "max.rss.kb" }) {
+                rss = Math.max(rss, Long.parseLong(report.getProperty(key, "-1")));
+            }
+        }
+        return rss;
+    }
+
+    /**
+     * Accepts measurements posted by a worker, see {@link murphy.WorkerReport}
+     */
+    public synchronized void onWorkerReport(Properties report) {
+        String container = report.getProperty(WorkerReport.CONTAINER_KEY);
+        if (container == null) {
+            logger.warn("Dropped report without container: {}", report);
+            return;
+        }
+        long containerId = ConverterUtils.toContainerId(container).getContainerId();
+        // worker reports footprint at target and samples at exit, keep both
+        container2report.computeIfAbsent(containerId, id -> new Properties()).putAll(report);
+        WorkerTask task = container2task.get(containerId);
+        String rss = report.getProperty("rss.kb");
+        if (task instanceof EatMemoryTask && rss != null) {
+            calibration.observe(task.getGroup().memSize, Long.parseLong(rss));
+        }
+        String nmtNative = report.getProperty("nmt.native.kb");
+        String nmtHeap = report.getProperty("nmt.heap.kb");
+        if (task instanceof EatMemoryTask && EatMemoryWorker.HEAP.equals(task.getGroup().allocation)
+                && nmtNative != null && nmtHeap != null && rss != null) {
+            // NMT misses mapped libraries, RSS beyond committed heap misses untouched native memory
+            calibration.observeNative(task.getGroup().memSize, Math.max(Long.parseLong(nmtNative),
+                Long.parseLong(rss) - Long.parseLong(nmtHeap)));
+        }
+    }
+
+    /**
+     * Records listen address of a shuffle worker
+     *
+     * @return addresses of all workers of the launch registered so far
+     */
+    public synchronized List<String> registerPeer(String key, String container, String address) {
+        Map<String, String> launchPeers = peers.computeIfAbsent(key, k -> new TreeMap<>());
+        if (launchPeers.put(container, address) == null) {
+            logger.info("Shuffle peer {} of {} at {}, {} registered", container, key, address, launchPeers.size());
+        }
+        return new ArrayList<>(launchPeers.values());
+    }
+
+    /**
+     * Sum of a numeric report value over workers of every node, e.g. disk MB/s of concurrent disk tasks
+     */
+    public synchronized Map<String, Double> sumByNode(String key) {
+        Map<String, Double> sums = new TreeMap<>();
+        for (Properties report : container2report.values()) {
+            String value = report.getProperty(key);
+            String node = report.getProperty("node");
+            if (value != null && node != null) {
+                sums.merge(node, Double.parseDouble(value), Double::sum);
+            }
+        }
+        return sums;
+    }
+
     public float getProgress() {
-        return 0.50f;
+        return totalTasksCount == 0 ? 1.0f : (float) completedTasksCount / totalTasksCount;
     }
 
 }
@@ -0,0 +1,55 @@
+package murphy.appmaster;
+
+import java.util.Arrays;
+import java.util.List;
+
+import murphy.DiskStressWorker;
+
+/**
+ * Local disk load, see {@link murphy.DiskStressWorker}
+ */
+public class DiskStressTask extends WorkerTask {
+
+	private static final String EXECUTOR_CLASS = DiskStressWorker.class.getName();
+
+	private final int heapMB;
+	private final int containerMB;
+
+	public DiskStressTask(Scenario.Launch launch) {
+		super(launch);
+		// a block buffer per I/O thread, direct memory is limited by -Xmx as well
+		int blockMB = (group.diskBlock >> 20) + 1;
+		// random access keeps an int per block of the file
+		long orderMB = DiskStressWorker.RANDOM.equals(group.diskAccess)
+				? (Math.max(1, group.diskSize / group.diskBlock) * 4 >> 20) + 1 : 0;
+		this.heapMB = (int) Math.max(64, group.diskThreads * blockMB + orderMB + 32);
+		this.containerMB = group.containerMB > 0 ? group.containerMB : Math.max(SMALL_CONTAINER_MB, heapMB * 2);
+	}
+
+	@Override
+	public List<String> getCommand() {
+		List<String> options = Arrays.asList(
+			"-Xmx" + heapMB + "m",
+			"-Dmurphy.hold=" + group.holdSec,
+			"-Dmurphy.seed=" + group.seed,
+			"-Dmurphy.disk.size=" + group.diskSize,
+			"-Dmurphy.disk.block=" + group.diskBlock,
+			"-Dmurphy.disk.threads=" + group.diskThreads,
+			"-Dmurphy.disk.direct=" + group.diskDirect,
+			"-Dmurphy.disk.fsync=" + group.diskFsync,
+			"-Dmurphy.disk.access=" + group.diskAccess
+		);
+		return javaCommand(options, EXECUTOR_CLASS, "this_is_worker");
+	}
+
+	@Override
+	protected int getContainerMB() {
+		return containerMB;
+	}
+
+	@Override
+	public String toString() {
+		return "DiskStressTask " + group.name + ": " + group.diskSize + " bytes per dir in " + group.diskBlock
+				+ " byte " + group.diskAccess + " blocks, fsync " + group.diskFsync + ", in " + containerMB + " MB";
+	}
+}
@@ -1,50 +1,94 @@
 package murphy.appmaster;
 
 
-import org.apache.hadoop.yarn.api.ApplicationConstants;
-import org.apache.hadoop.yarn.api.ApplicationConstants.Environment;
-import org.apache.hadoop.yarn.api.records.Priority;
-import org.apache.hadoop.yarn.api.records.Resource;
-
 import java.util.*;
 
+import murphy.EatMemoryWorker;
 
-public class EatMemoryTask {
 
-	private static final int CONTAINER_VCORES = 1;
-	private static final int CONTAINER_PRIORITY = 0;
+public class EatMemoryTask extends WorkerTask {
 
 	private static final String EXECUTOR_CLASS = murphy.EatMemoryWorker.class.getName();
+	/** Heap of off heap workers, it only holds fill stages */
+	private static final int DIRECT_HEAP_MB = 64;
 
 	private final long memSizeParam;
 	private final int memSizeMB;
+	private final int heapMB;
+	private final int containerMB;
+	private final boolean nmt;
 
-	public EatMemoryTask(long memSizeParam) {
-		this.memSizeParam = memSizeParam;
+	public EatMemoryTask(Scenario.Launch launch, MemoryCalibration calibration) {
+		super(launch);
+		this.memSizeParam = group.memSize;
 		this.memSizeMB = (int) (memSizeParam * 12 / 1048576 / 10);
+		boolean direct = EatMemoryWorker.DIRECT.equals(group.allocation);
+		this.heapMB = direct ? DIRECT_HEAP_MB : memSizeMB;
+		if (group.containerMB > 0 || isAllocateOnly()) {
+			this.containerMB = group.containerMB;
+		} else {
+			// direct payload is resident next to the heap
+			int fallbackMB = (direct ? memSizeMB + heapMB : heapMB) + MemoryCalibration.NATIVE_MB;
+			this.containerMB = calibration.getContainerMB(memSizeParam, fallbackMB, group.pretouch ? heapMB : 0);
+		}
+		this.nmt = calibration.isNmt();
 	}
 
+	@Override
 	public List<String> getCommand() {
-		String logDir = ApplicationConstants.LOG_DIR_EXPANSION_VAR;
-		List<String> command = Arrays.asList(
-			Environment.JAVA_HOME.$() + "/bin/java",
-			"-Xmx" + memSizeMB + "m",
-			EXECUTOR_CLASS,
-			Long.toString(memSizeParam),
-			"this_is_worker",
-			"1> " + logDir + "/stdout",
-			"2> " + logDir + "/stderr"
-		);
-		return command;
+		List<String> options = new ArrayList<>();
+		if (EatMemoryWorker.DIRECT.equals(group.allocation)) {
+			// payload is off heap, heap only holds fill stages
+			options.add("-Xmx" + heapMB + "m");
+			options.add("-XX:MaxDirectMemorySize=" + memSizeMB + "m");
+		} else {
+			options.add("-Xmx" + memSizeMB + "m");
+			// worker allocates few huge long-living chunks: with default young gen (1/3 of heap)
+			// old gen of a small heap can not take even one chunk
+			options.add("-Xmn" + Math.max(8, memSizeMB / 16) + "m");
+			if (group.pretouch) {
+				// only committed heap is pre-touched
+				options.add("-Xms" + memSizeMB + "m");
+			}
+		}
+		if (group.pretouch) {
+			options.add("-XX:+AlwaysPreTouch");
+		}
+		if (Scenario.THP_PAGES.equals(group.pages)) {
+			// JVM madvises heap, so it gets huge pages with THP enabled = madvise as well
+			options.add("-XX:+UseTransparentHugePages");
+		} else if (Scenario.LARGE_PAGES.equals(group.pages)) {
+			// hugetlbfs pages reserved on the node, JVM warns and falls back to 4K pages without them
+			options.add("-XX:+UseLargePages");
+		}
+		options.addAll(Arrays.asList(
+			"-Dmurphy.allocation=" + group.allocation,
+			"-Dmurphy.ramp=" + group.rampSec,
+			"-Dmurphy.hold=" + group.holdSec,
+			"-Dmurphy.sample.ms=" + group.sampleMs,
+			"-Dmurphy.pattern=" + group.pattern,
+			"-Dmurphy.seed=" + group.seed,
+			"-Dmurphy.compression=" + group.compression,
+			"-Dmurphy.duplicates=" + group.duplicates,
+			"-Dmurphy.zeros=" + group.zeros,
+			"-Dmurphy.cpu.threads=" + group.cpuThreads,
+			"-Dmurphy.cpu.duty=" + group.cpuDuty,
+			"-Dmurphy.cpu.kernel=" + group.cpuKernel
+		));
+		if (nmt) {
+			options.add("-XX:NativeMemoryTracking=summary");
+		}
+		return javaCommand(options, EXECUTOR_CLASS, Long.toString(memSizeParam), "this_is_worker");
 	}
 
-	public Resource getCapability() {
-		Resource capability = Resource.newInstance(memSizeMB, CONTAINER_VCORES);
-		return capability;
+	@Override
+	protected int getContainerMB() {
+		return containerMB;
 	}
 
-	public Priority getPriority() {
-		Priority priority = Priority.newInstance(CONTAINER_PRIORITY);
-		return priority;
+	@Override
+	public String toString() {
+		return "EatMemoryTask " + group.name + ": " + memSizeParam + " bytes, heap " + heapMB
+				+ " MB in " + containerMB + " MB";
 	}
 }
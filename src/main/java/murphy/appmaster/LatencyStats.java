@@ -0,0 +1,66 @@
+package murphy.appmaster;
+
+import java.util.Arrays;
+
+/**
+ * Collects all samples of a latency to report tail percentiles
+ */
+public class LatencyStats {
+
+	private final String unit;
+	private long[] samples = new long[1024];
+	private int count = 0;
+	private long sum = 0;
+
+	public LatencyStats(String unit) {
+		this.unit = unit;
+	}
+
+	public synchronized void add(long value) {
+		if (count == samples.length) {
+			samples = Arrays.copyOf(samples, count * 2);
+		}
+		samples[count++] = value;
+		sum += value;
+	}
+
+	public void addAll(LatencyStats other) {
+		long[] values;
+		int n;
+		synchronized (other) {
+			values = other.samples;
+			n = other.count;
+		}
+		for (int i = 0; i < n; i++) {
+			add(values[i]);
+		}
+	}
+
+	public synchronized int getCount() {
+		return count;
+	}
+
+	public synchronized long getAverage() {
+		return count == 0 ? -1 : sum / count;
+	}
+
+	/**
+	 * @param p fraction, e.g. 0.99
+	 * @return nearest-rank percentile, -1 if there are no samples
+	 */
+	public synchronized long percentile(double p) {
+		if (count == 0) {
+			return -1;
+		}
+		long[] sorted = Arrays.copyOf(samples, count);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(p * count);
+		return sorted[Math.max(0, Math.min(count, rank) - 1)];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d avg=%d p50=%d p99=%d p999=%d max=%d %s", getCount(), getAverage(),
+				percentile(0.5), percentile(0.99), percentile(0.999), percentile(1.0), unit);
+	}
+}
@@ -0,0 +1,129 @@
+package murphy.appmaster;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sizes worker containers by footprint measured in earlier workers instead of fixed heap plus native allowance.
+ * Keeps the worst observed non-payload overhead (RSS minus payload, i.e. unused heap, metaspace,
+ * threads, GC structures) per payload size. Sizes not seen yet borrow the overhead of the nearest one.
+ * A worker killed by NM raises the overhead of its size above the container it was killed in.
+ */
+public class MemoryCalibration {
+
+	private static final Logger logger = LoggerFactory.getLogger(MemoryCalibration.class);
+
+	/** Native memory of a worker JVM on top of its heap before anything is measured: metaspace, threads, GC, NMT */
+	public static final int NATIVE_MB = 64;
+	/** Growth of a container over the one its worker was killed in, when reported RSS is not higher */
+	private static final int KILL_STEP_MB = 32;
+
+	private final boolean enabled;
+	private final double margin;
+	private final boolean nmt;
+
+	/** Map[payload MB: max overhead MB] */
+	private final TreeMap<Integer, Integer> overheads = new TreeMap<>();
+	/** Map[payload MB: max native MB] */
+	private final TreeMap<Integer, Integer> natives = new TreeMap<>();
+
+	public MemoryCalibration(Scenario scenario) {
+		enabled = Boolean.parseBoolean(scenario.get("calibration.enabled", "true"));
+		margin = Double.parseDouble(scenario.get("calibration.margin", "0.05"));
+		nmt = Boolean.parseBoolean(scenario.get("calibration.nmt", "true"));
+	}
+
+	/** Whether workers should run with native memory tracking to report non-heap overhead */
+	public boolean isNmt() {
+		return enabled && nmt;
+	}
+
+	/**
+	 * @param fallbackMB container size used while there is no measurement
+	 * @param pretouchedMB heap touched at JVM start regardless of payload, 0 without pre-touch
+	 */
+	public synchronized int getContainerMB(long memSize, int fallbackMB, int pretouchedMB) {
+		int payloadMB = toMB(memSize);
+		if (!enabled) {
+			return fallbackMB;
+		}
+		Integer overheadMB = nearest(overheads, payloadMB);
+		int containerMB = overheadMB == null ? fallbackMB
+				: (int) Math.ceil((payloadMB + overheadMB) * (1 + margin));
+		if (pretouchedMB > 0) {
+			// resident from start: the whole heap and native memory next to it
+			Integer nativeMB = nearest(natives, payloadMB);
+			containerMB = Math.max(containerMB, (int) Math.ceil(
+					(pretouchedMB + (nativeMB == null ? NATIVE_MB : nativeMB)) * (1 + margin)));
+		}
+		return containerMB;
+	}
+
+	/**
+	 * Value of the size or of the nearest measured one, null if nothing was measured
+	 */
+	private static Integer nearest(TreeMap<Integer, Integer> bySize, int payloadMB) {
+		Integer value = bySize.get(payloadMB);
+		if (value == null) {
+			Map.Entry<Integer, Integer> lower = bySize.floorEntry(payloadMB);
+			Map.Entry<Integer, Integer> higher = bySize.ceilingEntry(payloadMB);
+			if (lower == null || (higher != null && higher.getKey() - payloadMB < payloadMB - lower.getKey())) {
+				lower = higher;
+			}
+			value = lower == null ? null : lower.getValue();
+		}
+		return value;
+	}
+
+	public synchronized void observe(long memSize, long rssKB) {
+		int payloadMB = toMB(memSize);
+		int overheadMB = Math.max(0, (int) (rssKB / 1024) - payloadMB);
+		if (raise(payloadMB, overheadMB)) {
+			logger.info("Calibrated overhead for {} MB payload: {} MB", payloadMB, overheadMB);
+		}
+	}
+
+	/**
+	 * Non-heap memory of a heap allocating worker, sizes containers of pre-touched heaps
+	 */
+	public synchronized void observeNative(long memSize, long nativeKB) {
+		int payloadMB = toMB(memSize);
+		int nativeMB = (int) (nativeKB / 1024);
+		Integer prev = natives.get(payloadMB);
+		if (prev == null || nativeMB > prev) {
+			natives.put(payloadMB, nativeMB);
+			logger.info("Calibrated native memory for {} MB payload: {} MB", payloadMB, nativeMB);
+		}
+	}
+
+	/**
+	 * Worker of this size was killed for exceeding its container, next ones get more than it had
+	 *
+	 * @param limitMB memory of the container the worker was killed in
+	 * @param rssKB last RSS the worker reported, -1 if none
+	 */
+	public synchronized void onKilled(long memSize, int limitMB, long rssKB) {
+		int payloadMB = toMB(memSize);
+		int overheadMB = Math.max(limitMB + KILL_STEP_MB, (int) (rssKB / 1024)) - payloadMB;
+		if (enabled && raise(payloadMB, overheadMB)) {
+			logger.warn("Worker of {} MB payload exceeded {} MB container, overhead raised to {} MB", payloadMB,
+					limitMB, overheadMB);
+		}
+	}
+
+	private boolean raise(int payloadMB, int overheadMB) {
+		Integer prev = overheads.get(payloadMB);
+		if (prev != null && overheadMB <= prev) {
+			return false;
+		}
+		overheads.put(payloadMB, overheadMB);
+		return true;
+	}
+
+	private static int toMB(long bytes) {
+		return (int) ((bytes + 1048575) / 1048576);
+	}
+}
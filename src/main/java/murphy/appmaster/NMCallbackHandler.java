@@ -16,6 +16,12 @@ public class NMCallbackHandler implements NMClientAsync.CallbackHandler {
 
 	private static final Logger logger = LoggerFactory.getLogger(NMCallbackHandler.class);
 
+	private final AppState appState;
+
+	public NMCallbackHandler(AppState appState) {
+		this.appState = appState;
+	}
+
 	@Override
 	public void onContainerStopped(ContainerId containerId) {
 		logger.debug("Succeeded to stop Container {}", containerId);
@@ -24,6 +30,7 @@ public class NMCallbackHandler implements NMClientAsync.CallbackHandler {
 	@Override
 	public void onContainerStarted(ContainerId containerId, Map<String, ByteBuffer> allServiceResponse) {
 		logger.info("Succeeded to start Container {}", containerId);
+		appState.onContainerStarted(containerId.getContainerId());
 		logger.info("ServicesData: {}", allServiceResponse.keySet());
 	}
 
@@ -1,6 +1,7 @@
 package murphy.appmaster;
 
 import org.apache.hadoop.yarn.api.records.*;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
 import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
 import org.apache.hadoop.yarn.client.api.async.NMClientAsync;
 
@@ -21,7 +22,7 @@ public class RMCallbackHandler implements AMRMClientAsync.CallbackHandler {
 	private final AppMaster appMaster;
 	private final AppState appState;
 
-	private final List<EatMemoryTask> requests = new ArrayList<>();
+	private final List<WorkerTask> requests = new ArrayList<>();
 
 	public RMCallbackHandler(AppMaster appMaster, AppState appState) {
 		this.appMaster = appMaster;
@@ -33,7 +34,7 @@ public class RMCallbackHandler implements AMRMClientAsync.CallbackHandler {
 	 * 
 	 * @param task
 	 */
-	public synchronized void registerPlanItem(EatMemoryTask task) {
+	public synchronized void registerPlanItem(WorkerTask task) {
 		requests.add(task);
 	}
 
@@ -41,12 +42,47 @@ public class RMCallbackHandler implements AMRMClientAsync.CallbackHandler {
 	public synchronized void onContainersAllocated(List<Container> allocatedContainers) {
 		logger.info("Got response from RM for container ask, allocatedCount={}", allocatedContainers.size());
 		for (Container container : allocatedContainers) {
-			EatMemoryTask task = requests.remove(0);
-			appState.recordContainerState(container.getId().getContainerId(), task, "ALLOCATED");
-			appMaster.launchEatMemoryTask(container, task);
+			WorkerTask task = takeTask(container);
+			if (task == null) {
+				appMaster.releaseContainer(container);
+				// RM counted the container against one of our asks, asks of its priority go again
+				for (WorkerTask pending : requests) {
+					if (pending.getContainerRequest() != null
+							&& pending.getContainerRequest().getPriority().equals(container.getPriority())) {
+						appMaster.renewRequest(pending);
+					}
+				}
+				continue;
+			}
+			appState.onContainerAllocated(container, task);
+			if (task.isAllocateOnly()) {
+				appMaster.releaseTaskContainer(container, task);
+			} else {
+				appMaster.launchTask(container, task);
+			}
 		}
 	}
 
+	/**
+	 * Picks the task of the request the container was allocated against: the biggest request of the
+	 * container priority fitting into its memory, so that heterogeneous groups of the same priority
+	 * get containers of their size and the ask table stays in sync with RM
+	 */
+	private WorkerTask takeTask(Container container) {
+		for (Collection<AMRMClient.ContainerRequest> matching : appMaster.getMatchingRequests(container)) {
+			for (AMRMClient.ContainerRequest request : matching) {
+				for (Iterator<WorkerTask> it = requests.iterator(); it.hasNext(); ) {
+					WorkerTask task = it.next();
+					if (task.getContainerRequest() == request && task.fits(container)) {
+						it.remove();
+						return task;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public synchronized void onContainersCompleted(List<ContainerStatus> completedContainers) {
 		for (ContainerStatus s : completedContainers) {
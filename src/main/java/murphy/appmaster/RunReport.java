@@ -0,0 +1,261 @@
+package murphy.appmaster;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.hadoop.yarn.api.records.ContainerExitStatus;
+
+import murphy.WorkerReport;
+
+/**
+ * Summary of a run written by AM at shutdown as a flat sorted properties file: plan, allocation and
+ * container life cycle latencies, placement, worker measurements, failures by exit code and node totals.
+ * Key suffix tells the direction of a metric for {@link #diff}: .ms, .us, .kb and .failures are better lower,
+ * .per_sec, .mbps and .iops are better higher (as well as huge page footprint), other keys are informational.
+ */
+public class RunReport {
+
+	public static final String FILE_NAME = "run-report.properties";
+	public static final double DEFAULT_THRESHOLD = 0.1;
+
+	private static final String[] LOWER_BETTER = { ".ms", ".us", ".kb", ".failures" };
+	private static final String[] HIGHER_BETTER = { ".per_sec", ".mbps", ".iops", "anonhuge.kb" };
+	/** Per run keys: container ids differ and plan is the input, not a result */
+	private static final String[] NOT_COMPARED = { "plan.", "container." };
+	/** Worker report values not averaged per group: per peer links and CPU times, which are better higher */
+	private static final String[] NOT_AVERAGED = { "link.", "cpu." };
+	private static final String[] NODE_SUMS = { "disk.write.mbps", "disk.write.iops", "disk.read.mbps",
+			"disk.read.iops", "shuffle.out.mbps", "shuffle.in.mbps" };
+
+	private final Map<String, String> values = new TreeMap<>();
+
+	public RunReport set(String key, Object value) {
+		values.put(key, String.valueOf(value));
+		return this;
+	}
+
+	public Map<String, String> getValues() {
+		return values;
+	}
+
+	public static RunReport build(Scenario scenario, AppState state, long runMs, long heartbeatIntervalMs) {
+		RunReport r = new RunReport();
+		r.set("plan.tasks", scenario.getTotalTasks());
+		r.set("plan.heartbeat.ms", heartbeatIntervalMs);
+		for (Scenario.Phase phase : scenario.getPhases()) {
+			for (Scenario.TaskGroup g : phase.groups) {
+				r.set("plan.group." + g.name, g);
+			}
+			r.set("plan.phase." + phase.name, "start " + phase.startSec + " s, " + phase.repeat + " x every "
+					+ phase.intervalSec + " s");
+		}
+
+		synchronized (state) {
+			r.set("run.ms", runMs);
+			r.set("tasks.completed", state.completedTasksCount);
+			r.set("tasks.failures", state.failedTasksCount);
+			r.set("tasks.preempted", state.preemptedContainers.size());
+			r.set("alloc.per_sec", String.format(Locale.ROOT, "%.2f", state.getAllocationRate()));
+			r.set("tasks.peak.containers", state.getPeakContainers());
+			r.set("tasks.peak.ms", state.getPeakMs());
+			r.set("alloc.p50.ms", state.allocations.percentile(0.5));
+			r.set("alloc.p99.ms", state.allocations.percentile(0.99));
+			r.set("alloc.max.ms", state.allocations.percentile(1.0));
+			r.set("heartbeat.p50.us", state.heartbeats.percentile(0.5));
+			r.set("heartbeat.p99.us", state.heartbeats.percentile(0.99));
+			for (Map.Entry<Scenario.Launch, AppState.LaunchStats> e : state.getLaunches().entrySet()) {
+				Scenario.Launch l = e.getKey();
+				r.set("launch." + l.phase.name + "." + l.iteration + "." + l.group.name + ".allocated.ms",
+						e.getValue().allocatedMs);
+			}
+
+			LatencyStats launch = new LatencyStats("ms");
+			LatencyStats run = new LatencyStats("ms");
+			Map<String, Integer> exits = new TreeMap<>();
+			Map<String, Integer> nodeContainers = new TreeMap<>();
+			Map<String, Integer> nodeFailures = new TreeMap<>();
+			Map<String, Map<String, double[]>> groupSums = new TreeMap<>();
+			for (Map.Entry<Long, AppState.ContainerRecord> e : state.containers.entrySet()) {
+				AppState.ContainerRecord c = e.getValue();
+				String prefix = "container." + c.id + ".";
+				String group = c.task.getGroup().name;
+				r.set(prefix + "node", c.node).set(prefix + "group", group);
+				r.set(prefix + "allocate.ms", c.allocatedAt - c.task.getRequestedAt());
+				if (c.startedAt > 0) {
+					r.set(prefix + "launch.ms", c.startedAt - c.allocatedAt);
+					launch.add(c.startedAt - c.allocatedAt);
+				}
+				if (c.startedAt > 0 && c.finishedAt > 0) {
+					r.set(prefix + "run.ms", c.finishedAt - c.startedAt);
+					run.add(c.finishedAt - c.startedAt);
+				}
+				nodeContainers.merge(c.node, 1, Integer::sum);
+				if (c.exitStatus != null) {
+					r.set(prefix + "exit", c.exitStatus);
+					boolean failed = c.exitStatus != 0 && c.exitStatus != ContainerExitStatus.PREEMPTED;
+					exits.merge("exit." + c.exitStatus + (failed ? ".failures" : ".containers"), 1, Integer::sum);
+					if (failed) {
+						nodeFailures.merge(c.node, 1, Integer::sum);
+					}
+				}
+				Properties report = state.container2report.get(e.getKey());
+				if (report == null) {
+					continue;
+				}
+				for (String key : report.stringPropertyNames()) {
+					if (key.equals(WorkerReport.CONTAINER_KEY)) {
+						continue;
+					}
+					String value = report.getProperty(key);
+					r.set(prefix + key, value);
+					if (direction(key) != 0 && !startsWith(key, NOT_AVERAGED)) {
+						try {
+							double[] sum = groupSums.computeIfAbsent(group, g -> new HashMap<>())
+									.computeIfAbsent(key, k -> new double[2]);
+							sum[0] += Double.parseDouble(value);
+							sum[1]++;
+						} catch (NumberFormatException ignored) {
+							// not a measurement
+						}
+					}
+				}
+			}
+			r.set("stage.launch.p50.ms", launch.percentile(0.5));
+			r.set("stage.launch.p99.ms", launch.percentile(0.99));
+			r.set("stage.run.p50.ms", run.percentile(0.5));
+			r.set("stage.run.p99.ms", run.percentile(0.99));
+			for (Map.Entry<String, Integer> e : exits.entrySet()) {
+				r.set(e.getKey(), e.getValue());
+			}
+			for (Map.Entry<String, Integer> e : nodeContainers.entrySet()) {
+				r.set("node." + e.getKey() + ".containers", e.getValue());
+				r.set("node." + e.getKey() + ".failures", nodeFailures.getOrDefault(e.getKey(), 0));
+			}
+			for (String node : state.badNodes) {
+				r.set("node." + node + ".corrupted", true);
+			}
+			for (Map.Entry<String, Map<String, double[]>> g : groupSums.entrySet()) {
+				for (Map.Entry<String, double[]> e : g.getValue().entrySet()) {
+					// mean over the workers of the group
+					r.set("group." + g.getKey() + "." + e.getKey(),
+							String.format(Locale.ROOT, "%.2f", e.getValue()[0] / e.getValue()[1]));
+				}
+			}
+		}
+		for (String key : NODE_SUMS) {
+			for (Map.Entry<String, Double> e : state.sumByNode(key).entrySet()) {
+				r.set("node." + e.getKey() + "." + key, String.format(Locale.ROOT, "%.2f", e.getValue()));
+			}
+		}
+		return r;
+	}
+
+	public void write(OutputStream out) {
+		PrintWriter w = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		for (Map.Entry<String, String> e : values.entrySet()) {
+			// keys are dot separated words, values are escaped for Properties.load
+			w.println(e.getKey() + "=" + e.getValue().replace("\\", "\\\\").replace("\n", "\\n"));
+		}
+		w.flush();
+	}
+
+	public static Properties load(String fileName) throws IOException {
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(fileName)) {
+			props.load(in);
+		}
+		return props;
+	}
+
+	/**
+	 * @return 1 if lower is better, -1 if higher is better, 0 for informational keys
+	 */
+	static int direction(String key) {
+		for (String suffix : HIGHER_BETTER) {
+			if (key.endsWith(suffix)) {
+				return -1;
+			}
+		}
+		for (String suffix : LOWER_BETTER) {
+			if (key.endsWith(suffix)) {
+				return 1;
+			}
+		}
+		return 0;
+	}
+
+	private static boolean startsWith(String key, String[] prefixes) {
+		for (String prefix : prefixes) {
+			if (key.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compares metrics of two reports and prints them with relative change.
+	 * Missing .failures count as 0, other metrics missing in one of the reports are listed but not judged.
+ * A metric measured in base and without samples (-1) in current is a regression.
+	 *
+	 * @param threshold relative change in the worse direction flagged as regression, e.g. 0.1
+	 * @return number of regressions
+	 */
+	public static int diff(Properties base, Properties current, double threshold, PrintStream out) {
+		TreeSet<String> keys = new TreeSet<>(base.stringPropertyNames());
+		keys.addAll(current.stringPropertyNames());
+		int regressions = 0;
+		out.println(String.format("%-60s %14s %14s %9s", "metric", "base", "current", "change"));
+		for (String key : keys) {
+			int direction = direction(key);
+			if (direction == 0 || startsWith(key, NOT_COMPARED)) {
+				continue;
+			}
+			String defaultValue = key.endsWith(".failures") ? "0" : null;
+			String b = base.getProperty(key, defaultValue);
+			String c = current.getProperty(key, defaultValue);
+			if (b == null || c == null) {
+				out.println(String.format("%-60s %14s %14s %9s", key, b == null ? "-" : b, c == null ? "-" : c,
+						"missing"));
+				continue;
+			}
+			double bv, cv;
+			try {
+				bv = Double.parseDouble(b);
+				cv = Double.parseDouble(c);
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			if (bv >= 0 && cv < 0) {
+				// -1 marks metric without samples: e.g. launch never fully allocated
+				regressions++;
+				out.println(String.format("%-60s %14s %14s %9s %s", key, b, c, "lost", "REGRESSION"));
+				continue;
+			}
+			if (bv < 0 || cv < 0) {
+				continue;
+			}
+			double change = bv == 0 ? (cv == 0 ? 0 : Double.POSITIVE_INFINITY) : (cv - bv) / bv;
+			boolean regression = change * direction > threshold;
+			if (regression) {
+				regressions++;
+			}
+			out.println(String.format(Locale.ROOT, "%-60s %14s %14s %+8.1f%% %s", key, b, c, change * 100,
+					regression ? "REGRESSION" : change * direction < -threshold ? "improved" : ""));
+		}
+		out.println(regressions + " regressions beyond " + Math.round(threshold * 100) + "%");
+		return regressions;
+	}
+}
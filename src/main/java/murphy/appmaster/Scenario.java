@@ -0,0 +1,357 @@
+package murphy.appmaster;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import murphy.CpuLoad;
+import murphy.DiskStressWorker;
+import murphy.EatMemoryWorker;
+import murphy.FillPattern;
+import murphy.ShuffleWorker;
+
+/**
+ * Schedule of task groups to run, loaded from a properties file shipped to the AM as local resource.
+ *
+ * <pre>
+ * phases = base, burst
+ *
+ * phase.base.start = 0           # seconds since AM start
+ * phase.base.groups = small, big
+ * phase.base.repeat = 3          # run the phase 3 times...
+ * phase.base.interval = 60       # ...every 60 s
+ * phase.burst.start = 90
+ * phase.burst.groups = big
+ * phase.burst.until = 600        # loop every interval till 600 s offset (instead of repeat)
+ * phase.burst.interval = 120
+ *
+ * group.small.containers = 20
+ * group.small.memSize = 1073741824
+ * group.small.vcores = 1
+ * group.small.priority = 1
+ * group.small.mode = memory
+ * group.small.ramp = 30          # load profile: seconds to reach memSize...
+ * group.small.hold = 120         # ...and seconds to hold it
+ * group.small.sample = 500       # ms between RSS/PSS/cgroup samples in worker, 0 to disable
+ * sample = 1000                  # default sampling for all groups
+ * group.small.pattern = random   # memory content verified after hold: sequence, walking, address, random, compressible
+ * group.small.seed = 42
+ * group.small.compression = 2    # compressible pattern: unique pages compress about 2x...
+ * group.small.duplicates = 0.3   # ...30% of pages are identical (KSM can merge them)...
+ * group.small.zeros = 0.1        # ...and 10% are zero
+ * group.small.allocation = heap  # payload in long[] on heap or in direct buffers off heap
+ * group.small.pages = thp        # heap pages: default, thp (UseTransparentHugePages) or large (UseLargePages)
+ * group.small.pretouch = true    # AlwaysPreTouch of the whole heap at JVM start
+ * group.small.cpu.threads = 2    # busy threads during hold...
+ * group.small.cpu.duty = 0.5     # ...spinning half of the time...
+ * group.small.cpu.kernel = alu   # ...on registers (alu) or on random reads of held memory (memory);
+ *                                # vcores default to threads * duty rounded up, only a hint to the scheduler
+ *
+ * group.spill.mode = disk        # local disk load instead of memory, for hold seconds
+ * group.spill.disk.size = 4294967296   # file per YARN local dir
+ * group.spill.disk.block = 1048576
+ * group.spill.disk.threads = 8   # I/O threads with a block buffer each, more local dirs are taken in turns
+ * group.spill.disk.direct = true # direct or heap buffers
+ * group.spill.disk.fsync = end   # none, end (of every write pass), block
+ * group.spill.disk.access = sequential   # or random
+ *
+ * group.net.mode = shuffle       # all-to-all streaming between containers of the launch, for hold seconds
+ * group.net.shuffle.rate = 10    # MB/s of every link, 0 for unlimited
+ * group.net.shuffle.block = 65536
+ *
+ * group.tiny.mode = allocate     # RM throughput: release containers once allocated, never launch
+ * group.tiny.containers = 5000
+ * group.tiny.containerMB = 0     # scheduler minimum
+ * group.tiny.batch = 500         # requests added per heartbeat
+ * heartbeat.ms = 1000            # AM-RM heartbeat interval
+ *
+ * calibration.enabled = true     # size containers by footprint reported by earlier workers
+ * calibration.margin = 0.05      # on top of the worst footprint measured for the size
+ * calibration.nmt = true         # workers report native overhead from NMT
+ * </pre>
+ */
+public class Scenario {
+
+	public static final String DEFAULT_MODE = "memory";
+	/** Mode of RM throughput test: containers are released as soon as allocated, never launched */
+	public static final String ALLOCATE_MODE = "allocate";
+	/** Local disk load, see {@link DiskStressWorker} */
+	public static final String DISK_MODE = "disk";
+	/** Network load between workers, see {@link ShuffleWorker} */
+	public static final String SHUFFLE_MODE = "shuffle";
+	/** Heap pages of memory workers */
+	public static final String DEFAULT_PAGES = "default";
+	public static final String THP_PAGES = "thp";
+	public static final String LARGE_PAGES = "large";
+	public static final int DEFAULT_HOLD_SEC = 120;
+	public static final int DEFAULT_SAMPLE_MS = 1000;
+
+	public static class TaskGroup {
+		public final String name;
+		public int containers = 1;
+		public long memSize = 1073741824;
+		public int vcores = 1;
+		public int priority = 0;
+		public String mode = DEFAULT_MODE;
+		public int rampSec = 0;
+		public int holdSec = DEFAULT_HOLD_SEC;
+		public int sampleMs = DEFAULT_SAMPLE_MS;
+		public String pattern = "sequence";
+		public long seed = 0;
+		/** Parameters of compressible pattern: compression ratio of unique pages, fractions of duplicate and zero pages */
+		public double compression = 1;
+		public double duplicates = 0;
+		public double zeros = 0;
+		/** Where memory workers keep payload, see {@link EatMemoryWorker#DIRECT} */
+		public String allocation = EatMemoryWorker.HEAP;
+		public String pages = DEFAULT_PAGES;
+		public boolean pretouch = false;
+		/** Busy threads during hold, their duty cycle and kernel, see {@link CpuLoad} */
+		public int cpuThreads = 0;
+		public double cpuDuty = 1;
+		public String cpuKernel = CpuLoad.ALU;
+		/** Disk mode: file size per local dir, I/O block, buffer kind, fsync policy and access pattern */
+		public long diskSize = 1L << 30;
+		public int diskBlock = 1 << 20;
+		public int diskThreads = 8;
+		public boolean diskDirect = true;
+		public String diskFsync = DiskStressWorker.FSYNC_END;
+		public String diskAccess = DiskStressWorker.SEQUENTIAL;
+		/** Shuffle mode: MB/s of every link and block size */
+		public double shuffleRate = 10;
+		public int shuffleBlock = 65536;
+		/** Container size overriding the one derived from memSize, 0 for scheduler minimum in allocate mode */
+		public int containerMB = 0;
+		/** Requests added per heartbeat, 0 for all at once */
+		public int batch = 0;
+
+		public TaskGroup(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name + "[" + containers + "x" + memSize + ", " + vcores + " vcores, prio " + priority
+					+ ", " + mode + " ramp " + rampSec + "s hold " + holdSec + "s"
+					+ (EatMemoryWorker.DIRECT.equals(allocation) ? ", off heap" : "")
+					+ (DEFAULT_PAGES.equals(pages) ? "" : ", " + pages + " pages") + (pretouch ? ", pretouch" : "")
+					+ (cpuThreads > 0 ? ", " + cpuThreads + " " + cpuKernel + " threads at " + cpuDuty : "") + "]";
+		}
+	}
+
+	public static class Phase {
+		public final String name;
+		public int startSec = 0;
+		public int repeat = 1;
+		public int intervalSec = 0;
+		public final List<TaskGroup> groups = new ArrayList<>();
+
+		public Phase(String name) {
+			this.name = name;
+		}
+	}
+
+	/** Single launch of a task group at given offset from the scenario start */
+	public static class Launch {
+		public final long offsetMs;
+		public final Phase phase;
+		public final int iteration;
+		public final TaskGroup group;
+
+		public Launch(long offsetMs, Phase phase, int iteration, TaskGroup group) {
+			this.offsetMs = offsetMs;
+			this.phase = phase;
+			this.iteration = iteration;
+			this.group = group;
+		}
+	}
+
+	private final Properties props;
+	private final List<Phase> phases = new ArrayList<>();
+
+
+	public Scenario(Properties props) {
+		this.props = props;
+		// allow "key = value   # comment"
+		for (String key : props.stringPropertyNames()) {
+			String value = props.getProperty(key);
+			int comment = value.indexOf('#');
+			if (comment >= 0) {
+				props.setProperty(key, value.substring(0, comment).trim());
+			}
+		}
+		Map<String, TaskGroup> groups = new HashMap<>();
+		for (String phaseName : getList("phases")) {
+			Phase phase = new Phase(phaseName);
+			String prefix = "phase." + phaseName + ".";
+			phase.startSec = getInt(prefix + "start", 0);
+			phase.intervalSec = getInt(prefix + "interval", 0);
+			phase.repeat = getInt(prefix + "repeat", 1);
+			if (props.containsKey(prefix + "until")) {
+				if (phase.intervalSec <= 0) {
+					throw new IllegalArgumentException("Phase " + phaseName + " loops without interval");
+				}
+				phase.repeat = (getInt(prefix + "until", 0) - phase.startSec) / phase.intervalSec + 1;
+			}
+			for (String groupName : getList(prefix + "groups")) {
+				TaskGroup group = groups.get(groupName);
+				if (group == null) {
+					group = parseGroup(groupName);
+					groups.put(groupName, group);
+				}
+				phase.groups.add(group);
+			}
+			if (phase.groups.isEmpty()) {
+				throw new IllegalArgumentException("Phase " + phaseName + " has no groups");
+			}
+			phases.add(phase);
+		}
+		if (phases.isEmpty()) {
+			throw new IllegalArgumentException("Scenario has no phases");
+		}
+	}
+
+	public static Scenario load(String fileName) throws IOException {
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(fileName)) {
+			props.load(in);
+		}
+		return new Scenario(props);
+	}
+
+	/** Scenario equivalent to the plain "numContainers x memSize" submission */
+	public static Scenario uniform(int numContainers, long memSize) {
+		Properties props = new Properties();
+		props.setProperty("phases", "default");
+		props.setProperty("phase.default.groups", "default");
+		props.setProperty("group.default.containers", Integer.toString(numContainers));
+		props.setProperty("group.default.memSize", Long.toString(memSize));
+		return new Scenario(props);
+	}
+
+	private TaskGroup parseGroup(String name) {
+		TaskGroup g = new TaskGroup(name);
+		String prefix = "group." + name + ".";
+		g.containers = getInt(prefix + "containers", g.containers);
+		g.memSize = getLong(prefix + "memSize", g.memSize);
+		g.priority = getInt(prefix + "priority", g.priority);
+		g.mode = props.getProperty(prefix + "mode", g.mode).trim();
+		g.rampSec = getInt(prefix + "ramp", g.rampSec);
+		g.holdSec = getInt(prefix + "hold", g.holdSec);
+		g.sampleMs = getInt(prefix + "sample", getInt("sample", g.sampleMs));
+		g.pattern = get(prefix + "pattern", g.pattern);
+		g.seed = getLong(prefix + "seed", g.seed);
+		g.compression = getDouble(prefix + "compression", g.compression);
+		g.duplicates = getDouble(prefix + "duplicates", g.duplicates);
+		g.zeros = getDouble(prefix + "zeros", g.zeros);
+		g.allocation = get(prefix + "allocation", g.allocation);
+		g.pages = get(prefix + "pages", g.pages);
+		g.pretouch = Boolean.parseBoolean(get(prefix + "pretouch", Boolean.toString(g.pretouch)));
+		g.cpuThreads = getInt(prefix + "cpu.threads", g.cpuThreads);
+		g.cpuDuty = getDouble(prefix + "cpu.duty", g.cpuDuty);
+		g.cpuKernel = get(prefix + "cpu.kernel", g.cpuKernel);
+		g.vcores = getInt(prefix + "vcores", Math.max(g.vcores, (int) Math.ceil(g.cpuThreads * g.cpuDuty)));
+		g.diskSize = getLong(prefix + "disk.size", g.diskSize);
+		g.diskBlock = getInt(prefix + "disk.block", g.diskBlock);
+		g.diskThreads = getInt(prefix + "disk.threads", g.diskThreads);
+		g.diskDirect = Boolean.parseBoolean(get(prefix + "disk.direct", Boolean.toString(g.diskDirect)));
+		g.diskFsync = get(prefix + "disk.fsync", g.diskFsync);
+		g.diskAccess = get(prefix + "disk.access", g.diskAccess);
+		g.shuffleRate = getDouble(prefix + "shuffle.rate", g.shuffleRate);
+		g.shuffleBlock = getInt(prefix + "shuffle.block", g.shuffleBlock);
+		g.containerMB = getInt(prefix + "containerMB", g.containerMB);
+		g.batch = getInt(prefix + "batch", g.batch);
+		FillPattern.forName(g.pattern, g.seed, g.compression, g.duplicates, g.zeros); // validate
+		if (!EatMemoryWorker.HEAP.equals(g.allocation) && !EatMemoryWorker.DIRECT.equals(g.allocation)) {
+			throw new IllegalArgumentException("Unknown allocation of group " + name + ": " + g.allocation);
+		}
+		if (!Arrays.asList(DEFAULT_PAGES, THP_PAGES, LARGE_PAGES).contains(g.pages)) {
+			throw new IllegalArgumentException("Unknown pages of group " + name + ": " + g.pages);
+		}
+		if (g.cpuDuty < 0 || g.cpuDuty > 1) {
+			throw new IllegalArgumentException("CPU duty cycle of group " + name + " is not in [0, 1]: " + g.cpuDuty);
+		}
+		if (!CpuLoad.ALU.equals(g.cpuKernel) && !CpuLoad.MEMORY.equals(g.cpuKernel)) {
+			throw new IllegalArgumentException("Unknown CPU kernel of group " + name + ": " + g.cpuKernel);
+		}
+		if (!Arrays.asList(DiskStressWorker.FSYNC_NONE, DiskStressWorker.FSYNC_END, DiskStressWorker.FSYNC_BLOCK)
+				.contains(g.diskFsync)) {
+			throw new IllegalArgumentException("Unknown fsync policy of group " + name + ": " + g.diskFsync);
+		}
+		if (!DiskStressWorker.SEQUENTIAL.equals(g.diskAccess) && !DiskStressWorker.RANDOM.equals(g.diskAccess)) {
+			throw new IllegalArgumentException("Unknown disk access of group " + name + ": " + g.diskAccess);
+		}
+		if (g.diskBlock < 8 || g.diskSize / g.diskBlock > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Bad disk block of group " + name + ": " + g.diskBlock);
+		}
+		if (DEFAULT_MODE.equals(g.mode) && g.memSize <= 0) {
+			throw new IllegalArgumentException("Memory of group " + name + " is not positive: " + g.memSize);
+		}
+		if (g.diskThreads < 1) {
+			throw new IllegalArgumentException("Disk threads of group " + name + " is not positive: " + g.diskThreads);
+		}
+		if (!Arrays.asList(DEFAULT_MODE, ALLOCATE_MODE, DISK_MODE, SHUFFLE_MODE).contains(g.mode)) {
+			throw new IllegalArgumentException("Unknown mode of group " + name + ": " + g.mode);
+		}
+		return g;
+	}
+
+	public List<Phase> getPhases() {
+		return phases;
+	}
+
+	/**
+	 * Expands phases and repeats into launches ordered by start offset
+	 */
+	public List<Launch> getSchedule() {
+		List<Launch> schedule = new ArrayList<>();
+		for (Phase phase : phases) {
+			for (int i = 0; i < phase.repeat; i++) {
+				long offsetMs = (phase.startSec + (long) i * phase.intervalSec) * 1000L;
+				for (TaskGroup group : phase.groups) {
+					schedule.add(new Launch(offsetMs, phase, i, group));
+				}
+			}
+		}
+		schedule.sort(Comparator.comparingLong(l -> l.offsetMs));
+		return schedule;
+	}
+
+	public int getTotalTasks() {
+		int total = 0;
+		for (Launch l : getSchedule()) {
+			total += l.group.containers;
+		}
+		return total;
+	}
+
+	public String get(String key, String defaultValue) {
+		return props.getProperty(key, defaultValue).trim();
+	}
+
+	public int getInt(String key, int defaultValue) {
+		String v = props.getProperty(key);
+		return v == null ? defaultValue : Integer.parseInt(v.trim());
+	}
+
+	public long getLong(String key, long defaultValue) {
+		String v = props.getProperty(key);
+		return v == null ? defaultValue : Long.parseLong(v.trim());
+	}
+
+	public double getDouble(String key, double defaultValue) {
+		String v = props.getProperty(key);
+		return v == null ? defaultValue : Double.parseDouble(v.trim());
+	}
+
+	private List<String> getList(String key) {
+		List<String> list = new ArrayList<>();
+		for (String s : props.getProperty(key, "").split(",")) {
+			if (!s.trim().isEmpty()) {
+				list.add(s.trim());
+			}
+		}
+		return list;
+	}
+}
@@ -0,0 +1,54 @@
+package murphy.appmaster;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * All-to-all network load between containers of a group launch, see {@link murphy.ShuffleWorker}
+ */
+public class ShuffleTask extends WorkerTask {
+
+	private static final String EXECUTOR_CLASS = murphy.ShuffleWorker.class.getName();
+
+	private final int heapMB;
+	private final int containerMB;
+
+	public ShuffleTask(Scenario.Launch launch) {
+		super(launch);
+		// direct send and receive buffer per peer, direct memory is limited by -Xmx
+		long buffersMB = 2L * group.containers * group.shuffleBlock >> 20;
+		this.heapMB = (int) Math.max(64, buffersMB + 32);
+		this.containerMB = group.containerMB > 0 ? group.containerMB : Math.max(SMALL_CONTAINER_MB, heapMB * 2);
+	}
+
+	/**
+	 * Workers of the same launch stream to each other
+	 */
+	public String getShuffleKey() {
+		return group.name + "." + launch.phase.name + "." + launch.iteration;
+	}
+
+	@Override
+	public List<String> getCommand() {
+		List<String> options = Arrays.asList(
+			"-Xmx" + heapMB + "m",
+			"-Dmurphy.hold=" + group.holdSec,
+			"-Dmurphy.shuffle.key=" + getShuffleKey(),
+			"-Dmurphy.shuffle.peers=" + group.containers,
+			"-Dmurphy.shuffle.rate=" + group.shuffleRate,
+			"-Dmurphy.shuffle.block=" + group.shuffleBlock
+		);
+		return javaCommand(options, EXECUTOR_CLASS, "this_is_worker");
+	}
+
+	@Override
+	protected int getContainerMB() {
+		return containerMB;
+	}
+
+	@Override
+	public String toString() {
+		return "ShuffleTask " + getShuffleKey() + ": " + group.shuffleRate + " MB/s to each of "
+				+ (group.containers - 1) + " peers in " + group.shuffleBlock + " byte blocks, in " + containerMB + " MB";
+	}
+}
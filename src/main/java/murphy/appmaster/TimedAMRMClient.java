@@ -0,0 +1,30 @@
+package murphy.appmaster;
+
+import java.io.IOException;
+
+import org.apache.hadoop.yarn.api.protocolrecords.AllocateResponse;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+import org.apache.hadoop.yarn.client.api.impl.AMRMClientImpl;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+
+/**
+ * AMRMClient measuring round trip of every heartbeat (allocate call) to RM
+ */
+public class TimedAMRMClient extends AMRMClientImpl<AMRMClient.ContainerRequest> {
+
+	private final LatencyStats heartbeats;
+
+	public TimedAMRMClient(LatencyStats heartbeats) {
+		this.heartbeats = heartbeats;
+	}
+
+	@Override
+	public AllocateResponse allocate(float progressIndicator) throws YarnException, IOException {
+		long start = System.nanoTime();
+		try {
+			return super.allocate(progressIndicator);
+		} finally {
+			heartbeats.add((System.nanoTime() - start) / 1000);
+		}
+	}
+}
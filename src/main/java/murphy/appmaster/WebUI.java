@@ -5,26 +5,60 @@ import com.sun.net.httpserver.HttpServer;
 
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.util.Properties;
+
+import murphy.WorkerReport;
 
 
 
 public class WebUI {
 
+	/** Path workers post their reports to */
+	public static final String REPORT_PATH = "/murphy/report";
+	/** Path shuffle workers register their listen address at, see {@link murphy.ShuffleWorker} */
+	public static final String PEERS_PATH = "/murphy/peers";
+
 	private AppState state;
+	private HttpServer server;
 
 	public WebUI(AppState exported) {
 		this.state = exported;
 	}
 
-	public void start(InetSocketAddress listenOn) throws IOException {
-		HttpServer server = HttpServer.create(listenOn, 0);
+	/**
+	 * @return address the server is actually bound to
+	 */
+	public InetSocketAddress start(InetSocketAddress listenOn) throws IOException {
+		server = HttpServer.create(listenOn, 0);
 		HttpContext context = server.createContext("/murphy");
 		context.setHandler((he) -> {
 			String uri = he.getRequestURI().getPath();
-			// currently just always print the state; handle POST / actions next step
-			String response = serializeAppState(uri);
+			if ("POST".equals(he.getRequestMethod()) && REPORT_PATH.equals(uri)) {
+				Properties report = new Properties();
+				try (InputStream in = he.getRequestBody()) {
+					report.load(new InputStreamReader(in, "UTF-8"));
+				}
+				state.onWorkerReport(report);
+				he.sendResponseHeaders(200, -1);
+				he.close();
+				return;
+			}
+			String response;
+			if ("POST".equals(he.getRequestMethod()) && PEERS_PATH.equals(uri)) {
+				Properties peer = new Properties();
+				try (InputStream in = he.getRequestBody()) {
+					peer.load(new InputStreamReader(in, "UTF-8"));
+				}
+				response = String.join("\n", state.registerPeer(peer.getProperty("key"),
+						peer.getProperty(WorkerReport.CONTAINER_KEY), peer.getProperty("address"))) + "\n";
+			} else {
+				// currently just always print the state; handle POST / actions next step
+				response = serializeAppState(uri);
+			}
 
 			byte[] respBytes = response.getBytes("UTF-8");
 			he.sendResponseHeaders(200, respBytes.length);
@@ -35,6 +69,11 @@ public class WebUI {
 			he.close();
 		});
 		server.start();
+		return new InetSocketAddress(listenOn.getHostString(), server.getAddress().getPort());
+	}
+
+	public void stop() {
+		server.stop(0);
 	}
 
 	public String serializeAppState(String uri) {
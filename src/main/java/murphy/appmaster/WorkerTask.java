@@ -0,0 +1,107 @@
+package murphy.appmaster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.yarn.api.ApplicationConstants;
+import org.apache.hadoop.yarn.api.ApplicationConstants.Environment;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+
+import murphy.appmaster.Scenario.TaskGroup;
+
+/**
+ * Container of one task group launch: its request, size and worker command line
+ */
+public abstract class WorkerTask {
+
+	/** Default container of disk and network workers: small heap and buffers, the rest is left to page cache and sockets */
+	protected static final int SMALL_CONTAINER_MB = 512;
+
+	protected final Scenario.Launch launch;
+	protected final TaskGroup group;
+	private final long requestedAt = System.currentTimeMillis();
+
+	private AMRMClient.ContainerRequest containerRequest;
+
+	protected WorkerTask(Scenario.Launch launch) {
+		this.launch = launch;
+		this.group = launch.group;
+	}
+
+	/**
+	 * Task of the group mode
+	 */
+	public static WorkerTask create(Scenario.Launch launch, MemoryCalibration calibration) {
+		if (Scenario.DISK_MODE.equals(launch.group.mode)) {
+			return new DiskStressTask(launch);
+		}
+		if (Scenario.SHUFFLE_MODE.equals(launch.group.mode)) {
+			return new ShuffleTask(launch);
+		}
+		return new EatMemoryTask(launch, calibration);
+	}
+
+	public abstract List<String> getCommand();
+
+	protected abstract int getContainerMB();
+
+	/**
+	 * Worker JVM command line with output redirected into container logs
+	 */
+	protected static List<String> javaCommand(List<String> jvmOptions, String workerClass, String... args) {
+		String logDir = ApplicationConstants.LOG_DIR_EXPANSION_VAR;
+		List<String> command = new ArrayList<>();
+		command.add(Environment.JAVA_HOME.$() + "/bin/java");
+		command.addAll(jvmOptions);
+		command.add("-Dmurphy.log.dir=" + logDir);
+		command.add(workerClass);
+		command.addAll(Arrays.asList(args));
+		command.add("1> " + logDir + "/stdout");
+		command.add("2> " + logDir + "/stderr");
+		return command;
+	}
+
+	/**
+	 * Task of RM throughput mode, its container is released without launch
+	 */
+	public boolean isAllocateOnly() {
+		return Scenario.ALLOCATE_MODE.equals(group.mode);
+	}
+
+	public long getRequestedAt() {
+		return requestedAt;
+	}
+
+	public Scenario.Launch getLaunch() {
+		return launch;
+	}
+
+	public TaskGroup getGroup() {
+		return group;
+	}
+
+	public Resource getCapability() {
+		return Resource.newInstance(getContainerMB(), group.vcores);
+	}
+
+
+	public AMRMClient.ContainerRequest getContainerRequest() {
+		return containerRequest;
+	}
+
+	public void setContainerRequest(AMRMClient.ContainerRequest containerRequest) {
+		this.containerRequest = containerRequest;
+	}
+
+	/**
+	 * Checks whether allocated container is big enough and has the priority this task was requested with.
+	 * Vcores are only a hint: DefaultResourceCalculator of CapacityScheduler gives every container 1 vcore
+	 */
+	public boolean fits(Container container) {
+		return container.getPriority().equals(containerRequest.getPriority())
+				&& container.getResource().getMemory() >= getContainerMB();
+	}
+}